@@ -1,5 +1,10 @@
 package com.example.envvarshtmlservlet;
 
+import com.example.templateengine.CompiledTemplate;
+import com.example.templateengine.Escaping;
+import com.example.templateengine.Mixer;
+import com.example.templateengine.TemplateRegistry;
+
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
@@ -9,6 +14,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * A servlet that collects various information about such things as header details, server information,
@@ -25,16 +31,18 @@ import java.util.Map;
 @WebServlet(name = "EnvVarsHTMLServlet", urlPatterns = "/")
 public class EnvVarsHTMLServlet extends HttpServlet {
 
-    private static String htmlTemplate = null;
+    private static Supplier<CompiledTemplate> htmlTemplate = null;
 
     /**
      * This method is called once when the Servlet is initialized.
      * It reads an HTML template from a file which is later used in GET requests.
+     * The request values put into the template are HTML-escaped when they are rendered.
      */
     @Override
     public void init() {
         if (htmlTemplate == null) {
-            htmlTemplate = Mixer.getContent(new File(getServletContext().getRealPath("environment-variables-template.html")));
+            htmlTemplate = TemplateRegistry.get(new File(getServletContext().getRealPath("environment-variables-template.html")),
+                    template -> template.escape(Escaping.HTML, "---name---", "---value---"));
         }
     }
 
@@ -62,19 +70,20 @@ public class EnvVarsHTMLServlet extends HttpServlet {
      * @throws IOException if an error occurs while writing the response
      */
     private void writeHTMLResponse(HttpServletRequest request, HttpServletResponse response) throws IOException {
-        response.setContentType("text/html");
+        response.setContentType("text/html;charset=UTF-8");
         PrintWriter out = response.getWriter();
-        out.println(getHTML(request));
+        getMixer(request).writeMix(out);
+        out.println();
     }
 
     /**
-     * Generates the HTML content for the response using the Mixer class and the collected information.
+     * Prepares the Mixer that generates the HTML content for the response from the collected information.
      *
      * @param request the HttpServletRequest
-     * @return the HTML content
+     * @return the Mixer holding the collected information
      */
-    private String getHTML(HttpServletRequest request) {
-        Mixer generator = new Mixer(htmlTemplate);
+    private Mixer getMixer(HttpServletRequest request) {
+        Mixer generator = new Mixer(htmlTemplate.get());
         Map<String, String> envVars = RequestInfoCollector.collectAllInformation(request);
         for (Map.Entry<String, String> entry : envVars.entrySet()) {
             if (entry.getKey() != null && !entry.getKey().isEmpty() && entry.getValue() != null && !entry.getValue().isEmpty()) {
@@ -82,6 +91,6 @@ public class EnvVarsHTMLServlet extends HttpServlet {
                 generator.add("<!--==xxx==-->", "---value---", entry.getValue());
             }
         }
-        return generator.getMix();
+        return generator;
     }
 }
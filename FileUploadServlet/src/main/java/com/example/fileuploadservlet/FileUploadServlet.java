@@ -1,5 +1,10 @@
 package com.example.fileuploadservlet;
 
+import com.example.templateengine.CompiledTemplate;
+import com.example.templateengine.Escaping;
+import com.example.templateengine.Mixer;
+import com.example.templateengine.TemplateRegistry;
+
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.MultipartConfig;
 import jakarta.servlet.annotation.WebServlet;
@@ -11,6 +16,7 @@ import jakarta.servlet.http.Part;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.function.Supplier;
 
 /**
  * A servlet that allows for the uploading of files and then displays them if their mime type is supported.
@@ -30,15 +36,16 @@ public class FileUploadServlet extends HttpServlet {
     /**
      * HTML template for displaying file data or error messages.
      */
-    private static String htmlTemplate = null;
+    private static Supplier<CompiledTemplate> htmlTemplate = null;
 
     /**
-     * Initialize servlet and load HTML template.
+     * Initialize servlet and load HTML template. The file information put into the template is HTML-escaped when it is rendered.
      */
     @Override
     public void init() {
         if (htmlTemplate == null) {
-            htmlTemplate = Mixer.getContent(new File(getServletContext().getRealPath("result.html")));
+            htmlTemplate = TemplateRegistry.get(new File(getServletContext().getRealPath("result.html")),
+                    template -> template.escape(Escaping.HTML, "---file_name---", "---mime_type---", "---error_message---"));
         }
     }
 
@@ -141,7 +148,7 @@ public class FileUploadServlet extends HttpServlet {
      * @return the produced HTML
      */
     private String getHTML(String errorMessage, FileData fileData) {
-        Mixer htmlGenerator = new Mixer(htmlTemplate);
+        Mixer htmlGenerator = new Mixer(htmlTemplate.get());
 
         if (errorMessage.equals("No file was uploaded")) {
             htmlGenerator.removeContext("<!--===file_information===-->");
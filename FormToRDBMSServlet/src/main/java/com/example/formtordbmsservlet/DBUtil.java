@@ -1,7 +1,34 @@
 package com.example.formtordbmsservlet;
 
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
 import jakarta.persistence.EntityManagerFactory;
 import jakarta.persistence.Persistence;
+import org.ehcache.config.CacheConfiguration;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.core.config.DefaultConfiguration;
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.Statistics;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+
 /**
  * Utility class for managing the EntityManagerFactory in an application.
  *
@@ -9,7 +36,28 @@ import jakarta.persistence.Persistence;
  */
 public class DBUtil {
 
-    private static final EntityManagerFactory emfInstance = Persistence.createEntityManagerFactory("guestbook");
+    /**
+     * The number of inserts sent to the database in one JDBC batch, and the most guests {@link GuestWriter} writes
+     * in one transaction. MySQL is told to rewrite the batches to multi-row inserts.
+     */
+    public static final int JDBC_BATCH_SIZE = 50;
+
+    /**
+     * The second-level cache region of the guests.
+     */
+    public static final String GUEST_REGION = "guestbook.guest";
+
+    /**
+     * The query cache region of the pages of guests.
+     */
+    public static final String PAGES_REGION = "guestbook.pages";
+
+    private static final Logger LOGGER = Logger.getLogger(DBUtil.class.getName());
+    private static final long STOP_WAIT_MILLIS = 10_000; // how long stop() waits for a bootstrap in progress
+    private static ExecutorService bootstrapExecutor = null;
+
+    private static volatile CompletableFuture<EntityManagerFactory> emfInstance = null;
+    private static volatile long waitMillis = 10_000;
 
     /**
      * Private constructor to prevent instantiation of this utility class.
@@ -20,11 +68,229 @@ public class DBUtil {
     }
 
     /**
-     * Returns the single instance of the EntityManagerFactory that is used throughout the application.
+     * Starts creating the EntityManagerFactory in the background, unless it is being created or was created.
+     * If creating it failed, for example because the database was down, it is tried again. Once it is created,
+     * the guests stored escaped are unescaped, see {@link EscapingMigration}, and the factory is warmed up: the pool
+     * is filled and the queries of {@link GuestDB} are run once, so that the first requests do not pay for compiling
+     * them.
+     *
+     * @return the future EntityManagerFactory
+     */
+    public static synchronized CompletableFuture<EntityManagerFactory> start() {
+        CompletableFuture<EntityManagerFactory> emf = emfInstance;
+        if (emf == null || emf.isCompletedExceptionally()) {
+            if (bootstrapExecutor == null) {
+                bootstrapExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "guestbook-bootstrap");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            emf = CompletableFuture.supplyAsync(DBUtil::bootstrap, bootstrapExecutor);
+            emfInstance = emf;
+        }
+        return emf;
+    }
+
+    /**
+     * Sets how long a request waits for the EntityManagerFactory while it is being created.
+     *
+     * @param millis the time in milliseconds
+     */
+    public static void setWaitMillis(long millis) {
+        waitMillis = millis;
+    }
+
+    /**
+     * Returns whether the EntityManagerFactory is created and warmed up, so that requests are served without waiting.
+     *
+     * @return true if the database is ready
+     */
+    public static boolean isReady() {
+        CompletableFuture<EntityManagerFactory> emf = emfInstance;
+        return emf != null && emf.isDone() && !emf.isCompletedExceptionally();
+    }
+
+    /**
+     * Returns the EntityManagerFactory that is used throughout the application, starting to create it if
+     * {@link GuestBookListener} has not, and waiting for it while it is being created.
      *
-     * @return the EntityManagerFactory instance
+     * @return the EntityManagerFactory instance for the "guestbook" persistence unit
+     * @throws IllegalStateException if the factory is not created within the wait time, or could not be created;
+     *                               it is created anew by the next call then.
      */
     public static EntityManagerFactory getEMFInstance() {
-        return emfInstance;
+        CompletableFuture<EntityManagerFactory> emf = emfInstance;
+        if (emf == null || emf.isCompletedExceptionally()) {
+            emf = start();
+        }
+        try {
+            return emf.get(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("The database is not ready", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("The database could not be connected to", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the database", e);
+        }
+    }
+
+    /**
+     * Closes the EntityManagerFactory and its connection pool, and stops the bootstrap thread, so that neither
+     * outlives the application. A bootstrap in progress is interrupted and waited for at most ten seconds; a factory
+     * it still creates after that is closed as soon as it is created.
+     */
+    public static synchronized void stop() {
+        CompletableFuture<EntityManagerFactory> emf = emfInstance;
+        emfInstance = null;
+        if (bootstrapExecutor != null) {
+            bootstrapExecutor.shutdownNow();
+            bootstrapExecutor = null;
+        }
+        if (emf == null) {
+            return;
+        }
+        try {
+            emf.get(STOP_WAIT_MILLIS, TimeUnit.MILLISECONDS).close();
+        } catch (ExecutionException e) {
+            // the factory was never created
+        } catch (TimeoutException e) {
+            LOGGER.warning("The guestbook database is still being connected to, it is closed once it is");
+            emf.thenAccept(EntityManagerFactory::close);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            emf.thenAccept(EntityManagerFactory::close);
+        }
+    }
+
+    /**
+     * Returns the statistics of the connection pool: the numbers of active, idle and total connections and of the
+     * threads waiting for a connection. They are also registered with JMX as the pool named guestbook.
+     *
+     * @return the HikariCP pool statistics, read live
+     */
+    public static HikariPoolMXBean getPoolStats() {
+        return getPoolStats(getEMFInstance());
+    }
+
+    /**
+     * Returns the statistics of Hibernate, among them the hits, misses and puts of the second-level cache and of the
+     * query cache, in total and per region, see {@link #GUEST_REGION} and {@link #PAGES_REGION}, and the hits and
+     * misses of the query plan cache.
+     *
+     * @return the statistics, read live
+     */
+    public static Statistics getStatistics() {
+        return getEMFInstance().unwrap(SessionFactory.class).getStatistics();
+    }
+
+    // Helper method, the statistics of the connection pool of a factory
+    private static HikariPoolMXBean getPoolStats(EntityManagerFactory emf) {
+        return emf.unwrap(SessionFactoryImplementor.class).getServiceRegistry()
+                .requireService(ConnectionProvider.class)
+                .unwrap(HikariDataSource.class)
+                .getHikariPoolMXBean();
+    }
+
+    // Helper method, creates the EntityManagerFactory, unescapes the guests stored escaped and warms it up
+    private static EntityManagerFactory bootstrap() {
+        long start = System.currentTimeMillis();
+        CacheManager cacheManager = createCacheManager();
+        EntityManagerFactory emf;
+        try {
+            emf = Persistence.createEntityManagerFactory("guestbook", properties(cacheManager));
+        } catch (RuntimeException e) {
+            cacheManager.close();
+            throw e;
+        }
+        try {
+            EscapingMigration.run(emf);
+            GuestDB.warmUp(emf);
+            LOGGER.info("The guestbook database is ready after " + (System.currentTimeMillis() - start) + " ms, "
+                    + getPoolStats(emf).getTotalConnections() + " connections open");
+            return emf;
+        } catch (RuntimeException e) {
+            emf.close(); // closes the cache manager too
+            LOGGER.log(Level.WARNING, "Could not warm up the guestbook database", e);
+            throw e;
+        }
+    }
+
+    // Helper method, the settings added to those of the persistence unit. Inserts are ordered by entity so that
+    // the guests and images of a batch are sent as one JDBC batch each. Connections are taken from a HikariCP pool
+    // of a fixed size, which logs a connection held longer than the leak detection threshold with the stack trace
+    // of the code that took it. The pooled connections are not in auto-commit mode, so a transaction takes its
+    // connection at its first statement rather than when it begins: persisting a guest first draws its id, which
+    // takes a connection of its own when the sequence is a table, and a pool full of connections held by
+    // transactions waiting for ids would never hand one out. The MySQL driver keeps the prepared statements of each
+    // connection, prepared on the server, so that the few queries of the guest book are parsed once per connection.
+    // A query given a fetch size, like the one of GuestDB.streamAll(), reads its rows through a server-side cursor,
+    // that many rows at a time; without useCursorFetch the driver would read the whole result into memory first.
+    // A pool setting may be overridden with a system property of the same name, e.g.
+    // -Dhibernate.hikari.maximumPoolSize=20
+    // The guests and pages of guests are kept in the second-level cache, see createCacheManager(), and
+    // statistics are gathered so that its hits and misses can be read, see getStatistics(). The queries of the guest
+    // book are named queries, compiled and checked when the factory is created; their plans are kept in the query
+    // plan cache, sized for the few queries there are, and its hits and misses are in the statistics too.
+    private static Map<String, Object> properties(CacheManager cacheManager) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("hibernate.cache.use_second_level_cache", true);
+        properties.put("hibernate.cache.use_query_cache", true);
+        properties.put("hibernate.cache.region.factory_class", "jcache");
+        properties.put("hibernate.javax.cache.cache_manager", cacheManager);
+        properties.put("hibernate.javax.cache.missing_cache_strategy", "fail");
+        properties.put("hibernate.generate_statistics", true);
+        properties.put("hibernate.query.startup_check", true);
+        properties.put("hibernate.query.plan_cache_enabled", true);
+        properties.put("hibernate.query.plan_cache_max_size", 64);
+        properties.put("hibernate.query.plan_parameter_metadata_max_size", 64);
+        properties.put("hibernate.jdbc.batch_size", JDBC_BATCH_SIZE);
+        properties.put("hibernate.order_inserts", true);
+        properties.put("hibernate.connection.provider_class", "org.hibernate.hikaricp.internal.HikariCPConnectionProvider");
+        setDefault(properties, "hibernate.hikari.poolName", "guestbook");
+        setDefault(properties, "hibernate.hikari.maximumPoolSize", "10");
+        setDefault(properties, "hibernate.hikari.minimumIdle", "10");
+        setDefault(properties, "hibernate.hikari.connectionTimeout", "5000");
+        setDefault(properties, "hibernate.hikari.leakDetectionThreshold", "10000");
+        setDefault(properties, "hibernate.hikari.registerMbeans", "true");
+        properties.put("hibernate.hikari.autoCommit", "false");
+        properties.put("hibernate.connection.provider_disables_autocommit", true);
+        setDefault(properties, "hibernate.hikari.dataSource.cachePrepStmts", "true");
+        setDefault(properties, "hibernate.hikari.dataSource.prepStmtCacheSize", "250");
+        setDefault(properties, "hibernate.hikari.dataSource.prepStmtCacheSqlLimit", "2048");
+        setDefault(properties, "hibernate.hikari.dataSource.useServerPrepStmts", "true");
+        setDefault(properties, "hibernate.hikari.dataSource.useCursorFetch", "true");
+        setDefault(properties, "hibernate.hikari.dataSource.rewriteBatchedStatements", "true");
+        return properties;
+    }
+
+    // Helper method, puts a setting, unless it is given as a system property
+    private static void setDefault(Map<String, Object> properties, String name, String value) {
+        properties.put(name, System.getProperty(name, value));
+    }
+
+    // Helper method, creates the caches of the second-level cache, sized by entries: 10000 guests and 1000 pages of
+    // guests. Guests never change once inserted. The cached pages are invalidated by Hibernate whenever a guest is
+    // inserted, through the update timestamps, which must never be evicted before the pages. The statistics of the
+    // caches are registered with JMX.
+    private static CacheManager createCacheManager() {
+        EhcacheCachingProvider provider =
+                (EhcacheCachingProvider) Caching.getCachingProvider(EhcacheCachingProvider.class.getName());
+        Map<String, CacheConfiguration<?, ?>> caches = new HashMap<>();
+        caches.put(GUEST_REGION, CacheConfigurationBuilder.newCacheConfigurationBuilder(Object.class, Object.class,
+                ResourcePoolsBuilder.heap(10_000)).build());
+        caches.put(PAGES_REGION, CacheConfigurationBuilder.newCacheConfigurationBuilder(Object.class, Object.class,
+                ResourcePoolsBuilder.heap(1000)).build());
+        caches.put("default-query-results-region", CacheConfigurationBuilder.newCacheConfigurationBuilder(Object.class,
+                Object.class, ResourcePoolsBuilder.heap(100)).build());
+        caches.put("default-update-timestamps-region", CacheConfigurationBuilder.newCacheConfigurationBuilder(Object.class,
+                Object.class, ResourcePoolsBuilder.heap(100)).build());
+        CacheManager cacheManager = provider.getCacheManager(URI.create("guestbook:formtordbmsservlet"),
+                new DefaultConfiguration(caches, DBUtil.class.getClassLoader()));
+        for (String name : caches.keySet()) {
+            cacheManager.enableStatistics(name, true);
+        }
+        return cacheManager;
     }
 }
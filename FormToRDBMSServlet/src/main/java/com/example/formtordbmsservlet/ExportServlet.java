@@ -0,0 +1,228 @@
+package com.example.formtordbmsservlet;
+
+import jakarta.servlet.annotation.WebInitParam;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Handles GET requests to /export: dumps the whole guest book, for moderation and analytics, as gzip compressed CSV
+ * (?format=csv, the default) or newline-delimited JSON (?format=ndjson), one guest per line in ascending order of
+ * their timestamps. The file is sent as an attachment named guestbook.csv.gz or guestbook.ndjson.gz.
+ * <p>
+ * The guests are streamed from {@link GuestDB#streamAll()}, which reads them through a database cursor a fetch of
+ * rows at a time, and each guest is written and compressed as soon as it is read, so an export takes the same memory
+ * however many guests there are. As the export is not buffered, it has no Content-Length. If it fails once it has
+ * started, the response is aborted without ending the gzip stream, so a truncated file never passes for a whole one.
+ * <p>
+ * An export holds a pooled database connection while it runs, for longer than the leak detection threshold of the
+ * pool if the guest book is large, so at most maxExports exports (an init parameter) run at a time, and more are
+ * refused with 503. An export is refused with 503 too while the database is not ready.
+ *
+ * @author Björn Forsberg
+ */
+@WebServlet(name = "exportServlet", urlPatterns = "/export",
+        initParams = @WebInitParam(name = "maxExports", value = "2")) // overridable in web.xml
+public class ExportServlet extends HttpServlet {
+
+    private static final Logger LOGGER = Logger.getLogger(ExportServlet.class.getName());
+    private static final int BUFFER_SIZE = 8192;
+    private static final String[] COLUMNS = {"id", "timestamp", "name", "email", "homepage", "comment"};
+
+    private Semaphore exports;
+
+    /**
+     * Initializes the servlet, setting how many exports may run at a time (the init parameter maxExports).
+     */
+    @Override
+    public void init() {
+        String maxExports = getInitParameter("maxExports");
+        exports = new Semaphore(maxExports == null ? 2 : Integer.parseInt(maxExports.trim()));
+    }
+
+    /**
+     * Handles GET requests. Streams all guests as a gzip compressed file in the requested format.
+     *
+     * @param request  The HTTP request.
+     * @param response The HTTP response.
+     * @throws IOException If an I/O error occurs.
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String format = request.getParameter("format");
+        if (format == null) {
+            format = "csv";
+        }
+        if (!format.equals("csv") && !format.equals("ndjson")) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown format, use csv or ndjson");
+            return;
+        }
+        if (!DBUtil.isReady()) {
+            DBUtil.start(); // tries again if connecting failed
+            response.setHeader("Retry-After", "5");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "The database is starting, try again later");
+            return;
+        }
+        if (!exports.tryAcquire()) {
+            response.setHeader("Retry-After", "60");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many exports, try again later");
+            return;
+        }
+        try {
+            export(response, format.equals("csv"));
+        } finally {
+            exports.release();
+        }
+    }
+
+    /**
+     * Streams all guests to the response, one line each. The gzip stream is only ended once every guest
+     * is written.
+     *
+     * @param response The HTTP response.
+     * @param csv      Whether the guests are written as CSV, or else as JSON.
+     * @throws IOException If an I/O error occurs.
+     */
+    private void export(HttpServletResponse response, boolean csv) throws IOException {
+        try (Stream<Guest> guests = GuestDB.streamAll()) {
+            response.setContentType("application/gzip");
+            response.setHeader("Content-Disposition",
+                    "attachment; filename=\"guestbook." + (csv ? "csv" : "ndjson") + ".gz\"");
+            response.setHeader("Cache-Control", "no-store");
+            Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(response.getOutputStream(), BUFFER_SIZE), StandardCharsets.UTF_8), BUFFER_SIZE);
+            if (csv) {
+                writeCsv(writer, COLUMNS);
+            }
+            Iterator<Guest> iterator = guests.iterator();
+            while (iterator.hasNext()) {
+                Object[] values = valuesOf(iterator.next());
+                if (csv) {
+                    writeCsv(writer, values);
+                } else {
+                    writeJson(writer, values);
+                }
+            }
+            writer.close();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Could not export the guest book", e);
+            if (response.isCommitted()) {
+                throw e; // aborts the response
+            }
+            response.reset();
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Internal server error");
+        }
+    }
+
+    // Helper method, the values of a guest in the order of the columns: numbers, strings or nulls
+    private static Object[] valuesOf(Guest guest) {
+        return new Object[]{guest.getId(), DateTimeFormatter.ISO_INSTANT.format(guest.getTimestamp().toInstant()),
+                guest.getName(), guest.getEmail(), guest.getHomepage(), guest.getComment()};
+    }
+
+    // Helper method, writes values as a line of CSV (RFC 4180); a null is written as an empty field
+    private static void writeCsv(Writer writer, Object[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            if (values[i] != null) {
+                writeCsvField(writer, values[i].toString());
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    // Helper method, writes a field of CSV, quoted if it holds a separator, a quote or a line break. A text that
+    // starts like a spreadsheet formula is quoted and prefixed with an apostrophe, so that opening the export in a
+    // spreadsheet never runs a formula posted by a guest.
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        boolean formula = !value.isEmpty() && "=+-@\t\r".indexOf(value.charAt(0)) >= 0;
+        boolean quoted = formula;
+        for (int i = 0; i < value.length() && !quoted; i++) {
+            char c = value.charAt(i);
+            quoted = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quoted) {
+            writer.write(value);
+            return;
+        }
+        writer.write(formula ? "\"'" : "\"");
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == '"') {
+                writer.write(value, start, i + 1 - start);
+                writer.write('"');
+                start = i + 1;
+            }
+        }
+        writer.write(value, start, value.length() - start);
+        writer.write('"');
+    }
+
+    // Helper method, writes values as a line of JSON, an object with a member for each column
+    private static void writeJson(Writer writer, Object[] values) throws IOException {
+        writer.write('{');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeJsonString(writer, COLUMNS[i]);
+            writer.write(':');
+            if (values[i] == null || values[i] instanceof Number) {
+                writer.write(String.valueOf(values[i]));
+            } else {
+                writeJsonString(writer, values[i].toString());
+            }
+        }
+        writer.write("}\n");
+    }
+
+    // Helper method, writes a JSON string, escaping quotes, backslashes and control characters
+    private static void writeJsonString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) {
+                writer.write(value, start, i - start);
+                switch (c) {
+                    case '"':
+                        writer.write("\\\"");
+                        break;
+                    case '\\':
+                        writer.write("\\\\");
+                        break;
+                    case '\n':
+                        writer.write("\\n");
+                        break;
+                    case '\r':
+                        writer.write("\\r");
+                        break;
+                    case '\t':
+                        writer.write("\\t");
+                        break;
+                    default:
+                        writer.write(String.format("\\u%04x", (int) c));
+                }
+                start = i + 1;
+            }
+        }
+        writer.write(value, start, value.length() - start);
+        writer.write('"');
+    }
+}
@@ -1,43 +1,65 @@
 package com.example.formtordbmsservlet;
 
+import com.example.templateengine.CompiledTemplate;
+import com.example.templateengine.Escaping;
+import com.example.templateengine.FragmentCache;
+import com.example.templateengine.Mixer;
+import com.example.templateengine.TemplateRegistry;
+
+import jakarta.servlet.annotation.WebInitParam;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import org.apache.commons.text.StringEscapeUtils;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * Handles POST and GET requests to the '/' URL pattern. The servlet supports the functionality of a guestbook,
  * where users can submit their details and comments via a form (POST request), and these entries are displayed
  * when the page is loaded (GET request).
  * <p>
- * The servlet validates the input, escapes HTML special characters to prevent XSS attacks, and handles errors.
+ * The servlet validates the input and handles errors. The entries are stored as they were entered and escaped
+ * by the template when the page is rendered, which prevents XSS attacks.
  * <p>
- * Entries are stored in a MySQL database via the {@link GuestDB} class and displayed in order of their timestamps.
+ * Entries are stored in a MySQL database via the {@link GuestDB} class and displayed in order of their timestamps,
+ * a page at a time; the guest book opens on the newest page.
  * <p>
  * The Mixer class used in this servlet was authored by Pierre Wijkman and Björn Nilsson. See {@link Mixer}.
  * Link to Mixer source code <a href="https://people.dsv.su.se/~pierre/os/mixer/">https://people.dsv.su.se/~pierre/os/mixer/</a>}
  *
  * @author Björn Forsberg
  */
-@WebServlet(name = "guestBookServlet", urlPatterns = "/")
+@WebServlet(name = "guestBookServlet", urlPatterns = "/",
+        initParams = @WebInitParam(name = "pageCacheTtl", value = "10")) // seconds, overridable in web.xml
 public class GuestBookServlet extends HttpServlet {
 
-    private static String htmlTemplate = null;
+    private static Supplier<CompiledTemplate> htmlTemplate = null;
+    private static final FragmentCache entryCache = new FragmentCache(4L * 1024 * 1024); // rendered entries, at most 4 MiB
+    private static final int PAGE_SIZE = 50;
 
     /**
-     * Initializes the servlet, loading the HTML template for the guest book page.
+     * Initializes the servlet, setting how long pages of guests are cached (the init parameter pageCacheTtl, in
+     * seconds), loading and compiling the HTML template for the guest book page and declaring how the values of the
+     * entries are escaped.
      */
     @Override
     public void init() {
+        String pageCacheTtl = getInitParameter("pageCacheTtl");
+        if (pageCacheTtl != null) {
+            GuestDB.setPageCacheTtl(Long.parseLong(pageCacheTtl.trim()) * 1000);
+        }
         if (htmlTemplate == null) {
-            htmlTemplate = Mixer.getContent(new File(getServletContext().getRealPath("guest-book-template.html")));
+            htmlTemplate = TemplateRegistry.get(new File(getServletContext().getRealPath("guest-book-template.html")), template -> template
+                    .escape(Escaping.HTML, "---time---", "---name---", "---comment---")
+                    .escape(Escaping.ATTRIBUTE, "---homepage---", "---email---")
+                    .escape(Escaping.URL, "---before---", "---after---"));
         }
     }
 
@@ -67,7 +89,7 @@ public class GuestBookServlet extends HttpServlet {
     }
 
     /**
-     * Sanitizes user input by trimming and escaping HTML special characters.
+     * Sanitizes user input by trimming it. HTML special characters are escaped when the input is rendered.
      *
      * @param input The raw input string.
      * @return The sanitized input string.
@@ -76,8 +98,7 @@ public class GuestBookServlet extends HttpServlet {
         if (input == null) {
             return null;
         }
-        input = input.trim();
-        return StringEscapeUtils.escapeHtml4(input);
+        return input.trim();
     }
 
     /**
@@ -91,9 +112,10 @@ public class GuestBookServlet extends HttpServlet {
     }
 
     /**
-     * Creates a new entry in the guest book by inserting a Guest object into the database.
+     * Creates a new entry in the guest book by inserting a Guest object into the database, or by posting it to the
+     * {@link GuestWriter} if write-behind is turned on; if its queue stays full, the post is refused with 503.
      * Handles any exceptions that occur during insertion.
-     * Redirects the user to the same URL and calls doGet() to display the updated guest book.
+     * Redirects the user to the same URL, without a cursor, so that doGet() shows the newest page with the new entry.
      *
      * @param request  The HTTP request.
      * @param response The HTTP response.
@@ -102,8 +124,15 @@ public class GuestBookServlet extends HttpServlet {
      */
     private void createNewEntry(HttpServletRequest request, HttpServletResponse response, Guest guest) throws IOException {
         try {
-            GuestDB.insert(guest);
-            response.sendRedirect(request.getRequestURI());
+            GuestWriter writer = (GuestWriter) getServletContext().getAttribute(GuestWriter.class.getName());
+            if (writer == null) {
+                GuestDB.insert(guest);
+            } else if (!writer.post(guest)) {
+                response.setHeader("Retry-After", "5");
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many posts, try again later");
+                return;
+            }
+            response.sendRedirect(request.getRequestURI()); // no cursor: the newest page, with the new entry
         } catch (RuntimeException e) {
             response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Internal server error");
         }
@@ -124,8 +153,8 @@ public class GuestBookServlet extends HttpServlet {
     }
 
     /**
-     * Handles GET requests. Generates the HTML for the guest book page by use of getGuestBookEntriesHTML(),
-     * and sends this HTML as the response.
+     * Handles GET requests. Generates the HTML for the guest book page by use of getGuestBookEntriesMixer(),
+     * and streams this HTML as the response. While the database is starting, the page is refused with 503.
      *
      * @param request  The HTTP request.
      * @param response The HTTP response.
@@ -135,59 +164,147 @@ public class GuestBookServlet extends HttpServlet {
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException{
         try {
             response.setContentType("text/html;charset=UTF-8");
-            response.getWriter().print(getGuestBookEntriesHTML());
+            getGuestBookEntriesMixer(request.getParameter("after"), request.getParameter("before"))
+                    .writeMix(response.getOutputStream(), response::setContentLength);
+        } catch (IllegalArgumentException e) {
+            response.reset();
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid page");
+        } catch (IllegalStateException e) {
+            if (response.isCommitted() || DBUtil.isReady()) {
+                throw e;
+            }
+            DBUtil.start(); // tries again if connecting failed
+            response.reset();
+            response.setHeader("Retry-After", "5");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "The database is starting, try again later");
         } catch (IOException e) {
-            response.setContentType("text/plain");
-            response.getWriter().println("Error : " + e.getMessage());
+            if (!response.isCommitted()) {
+                response.reset();
+                response.setContentType("text/plain");
+                response.getWriter().println("Error : " + e.getMessage());
+            }
         }
     }
 
     /**
-     * Retrieves guests and generates the HTML for the guest book entries section of the page.
+     * Retrieves one page of guests and prepares the Mixer for the guest book entries section of the page.
+     * A page is asked for with a cursor: ?after= the last entry of the page before it, or ?before= the first entry of
+     * the page after it. Without a cursor, the newest page is shown. Only the guests of the page are read, through
+     * the (timestamp, id) index, so a page costs the same however many entries the guest book has. For the same
+     * reason the entries are numbered by the ids of their guests rather than counted from the first entry, which
+     * would read every entry before the page.
      *
-     * @return The HTML for the guest book entries section of the page.
+     * @param after  The cursor of the entry the page starts after, or null.
+     * @param before The cursor of the entry the page ends before, or null.
+     * @return The Mixer that renders the page.
+     * @throws IllegalArgumentException if a cursor is malformed.
      */
-    private String getGuestBookEntriesHTML() {
-        List<Guest> guests = getSortedGuests();
-        return getHTML(guests);
+    private Mixer getGuestBookEntriesMixer(String after, String before) {
+        List<Guest> guests;
+        boolean hasPrevious;
+        boolean hasNext;
+        if (before != null) {
+            long[] cursor = parseCursor(before);
+            guests = GuestDB.pageBefore(new Date(cursor[0]), cursor[1], PAGE_SIZE + 1);
+            hasPrevious = guests.size() > PAGE_SIZE;
+            if (hasPrevious) {
+                guests = guests.subList(1, guests.size());
+            }
+            hasNext = !guests.isEmpty();
+        } else if (after != null) {
+            long[] cursor = parseCursor(after);
+            guests = GuestDB.page(new Date(cursor[0]), cursor[1], PAGE_SIZE + 1);
+            hasNext = guests.size() > PAGE_SIZE;
+            if (hasNext) {
+                guests = guests.subList(0, PAGE_SIZE);
+            }
+            hasPrevious = !guests.isEmpty();
+        } else {
+            guests = GuestDB.lastPage(PAGE_SIZE + 1);
+            hasPrevious = guests.size() > PAGE_SIZE;
+            if (hasPrevious) {
+                guests = guests.subList(1, guests.size());
+            }
+            hasNext = false;
+        }
+        return getMixer(guests, hasPrevious, hasNext);
     }
 
     /**
-     * Replaces placeholders in the HTML template with actual guest book entries.
+     * Adds the actual guest book entries for the placeholders in the HTML template to a Mixer, and the links to
+     * the pages before and after them.
+     * Entries that were rendered before are taken from the cache of rendered entries as they are.
      *
-     * @param guests A list of Guest objects.
-     * @return The resulting HTML string.
+     * @param guests      The guests of the page, in ascending order of their timestamps.
+     * @param hasPrevious Whether there are entries before the page.
+     * @param hasNext     Whether there are entries after the page.
+     * @return The Mixer holding the guest book entries.
      */
-    private String getHTML(List<Guest> guests) {
-        Mixer mixer = new Mixer(htmlTemplate);
+    private Mixer getMixer(List<Guest> guests, boolean hasPrevious, boolean hasNext) {
+        Mixer mixer = new Mixer(htmlTemplate.get());
 
-        int postCount = 1;
         if (guests.isEmpty()) {
             mixer.removeContext("<!--===entries===-->");
         } else {
             for (Guest guest : guests) {
-                System.out.println("adding guest to htmltemplate");
-                mixer.add("<!--===entries===-->", "---no---", Integer.toString(postCount)); // use counter instead of guest ID
-                mixer.add("<!--===entries===-->", "---time---", guest.getTimestamp().toString());
-                mixer.add("<!--===entries===-->", "---homepage---", guest.getHomepage());
-                mixer.add("<!--===entries===-->", "---name---", guest.getName());
-                mixer.add("<!--===entries===-->", "---email---", guest.getEmail());
-                mixer.add("<!--===entries===-->", "---comment---", guest.getComment());
-
-                postCount++;
+                // An entry never changes once posted, so its rendering is kept under a single version
+                mixer.addRow("<!--===entries===-->", entryCache, guest.getId(), 0, () -> getRow(guest));
             }
         }
-        return mixer.getMix();
+        if (hasPrevious) {
+            mixer.add("<!--===previous===-->", "---before---", cursorOf(guests.get(0)));
+        } else {
+            mixer.removeContext("<!--===previous===-->");
+        }
+        if (hasNext) {
+            mixer.add("<!--===next===-->", "---after---", cursorOf(guests.get(guests.size() - 1)));
+        } else {
+            mixer.removeContext("<!--===next===-->");
+        }
+        return mixer;
+    }
+
+    /**
+     * Makes the cursor of an entry: its timestamp and its id.
+     *
+     * @param guest The guest of the entry.
+     * @return The cursor, as it is put in the URL.
+     */
+    private static String cursorOf(Guest guest) {
+        return guest.getTimestamp().getTime() + "." + guest.getId();
+    }
+
+    /**
+     * Parses a cursor made by {@link #cursorOf(Guest)}. Cursors used to end with the number of the entry as well; it
+     * is ignored, so that links made before still work.
+     *
+     * @param cursor The cursor from the URL.
+     * @return The timestamp in milliseconds and the id of the entry.
+     * @throws IllegalArgumentException if the cursor is malformed.
+     */
+    private static long[] parseCursor(String cursor) {
+        String[] parts = cursor.split("\\.");
+        if (parts.length != 2 && parts.length != 3) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])};
     }
 
     /**
-     * Retrieves all guest book entries from the database and sorts them by their timestamps.
+     * Maps the placeholders of one guest book entry to its values. Only called for entries that are not
+     * in the cache of rendered entries.
      *
-     * @return A sorted list of Guest objects.
+     * @param guest The guest of the entry.
+     * @return The placeholders mapped to the values of the entry.
      */
-    private List<Guest> getSortedGuests() {
-        List<Guest> guests = GuestDB.getAll();
-        guests.sort(Comparator.comparing(Guest::getTimestamp));
-        return guests;
+    private Map<String, String> getRow(Guest guest) {
+        Map<String, String> row = new HashMap<>();
+        row.put("---no---", Long.toString(guest.getId())); // the id, counting the entries before would read them all
+        row.put("---time---", guest.getTimestamp().toString());
+        row.put("---homepage---", guest.getHomepage());
+        row.put("---name---", guest.getName());
+        row.put("---email---", guest.getEmail());
+        row.put("---comment---", guest.getComment());
+        return row;
     }
 }
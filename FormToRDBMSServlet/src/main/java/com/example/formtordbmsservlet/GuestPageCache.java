@@ -0,0 +1,199 @@
+package com.example.formtordbmsservlet;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * In-process read-through cache of the pages of guests read by {@link GuestDB}. A page is keyed by the cursor it
+ * was read from, its direction and its limit, and kept until its time to live runs out or a guest is inserted that
+ * belongs in it. An inserted guest only evicts the pages it falls within: since guests are posted with the current
+ * time, that is normally just the last page, so the other pages keep being served without touching the database.
+ * <p>
+ * Guests inserted by another node are not seen until the pages expire, so the time to live bounds how long the
+ * nodes of a cluster may disagree. A time to live of zero turns the cache off.
+ * <p>
+ * The cache is bounded by a number of pages; when it is full, the least recently used page is evicted. It is safe
+ * to share between threads. The cached lists are unmodifiable and the guests in them detached, so they must be
+ * treated as read-only.
+ *
+ * @author Björn Forsberg
+ */
+public final class GuestPageCache {
+
+    private final int maxPages;
+    private final LinkedHashMap<Key, Page> pages = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile long ttlMillis;
+    private long generation = 0;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxPages  the maximum number of cached pages
+     * @param ttlMillis how long a page is served from the cache, in milliseconds; 0 turns the cache off
+     */
+    public GuestPageCache(int maxPages, long ttlMillis) {
+        if (maxPages <= 0) {
+            throw new IllegalArgumentException("maxPages must be positive: " + maxPages);
+        }
+        this.maxPages = maxPages;
+        setTtlMillis(ttlMillis);
+    }
+
+    /**
+     * Sets how long a page is served from the cache. Pages that are already cached keep the expiry they got.
+     *
+     * @param ttlMillis the time to live in milliseconds; 0 turns the cache off
+     */
+    public void setTtlMillis(long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("ttlMillis must not be negative: " + ttlMillis);
+        }
+        this.ttlMillis = ttlMillis;
+        if (ttlMillis == 0) {
+            clear();
+        }
+    }
+
+    /**
+     * Returns how long a page is served from the cache.
+     *
+     * @return the time to live in milliseconds
+     */
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * Returns a page, reading it with the given query unless it is cached and has not expired.
+     * A page read while a guest was being inserted is returned but not cached, as it may miss that guest.
+     *
+     * @param cursorTimestamp the timestamp of the cursor, or null for the first or the last page
+     * @param cursorId        the id of the cursor; ignored for the first and the last page
+     * @param limit           the maximum number of guests in the page
+     * @param backwards       whether the page is read backwards from the cursor
+     * @param query           reads the page from the database, in the order of the query
+     * @return the page as an unmodifiable list, in the order of the query
+     */
+    public List<Guest> get(Date cursorTimestamp, Long cursorId, int limit, boolean backwards, Supplier<List<Guest>> query) {
+        long ttl = ttlMillis;
+        if (ttl == 0) {
+            return query.get();
+        }
+        Key key = new Key(cursorTimestamp == null ? null : cursorTimestamp.getTime(),
+                cursorTimestamp == null ? null : cursorId, limit, backwards);
+        long readGeneration;
+        synchronized (this) {
+            Page page = pages.get(key);
+            if (page != null && page.expires - System.currentTimeMillis() > 0) {
+                return page.guests;
+            }
+            readGeneration = generation;
+        }
+        List<Guest> guests = Collections.unmodifiableList(query.get());
+        synchronized (this) {
+            if (generation == readGeneration) {
+                pages.put(key, new Page(guests, System.currentTimeMillis() + ttl));
+                if (pages.size() > maxPages) {
+                    Iterator<Key> eldest = pages.keySet().iterator();
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+        }
+        return guests;
+    }
+
+    /**
+     * Evicts the pages an inserted guest belongs in: the pages whose range from their cursor to their last guest
+     * holds the guest, and the pages that were not full, as they reached the end of the guests in their direction.
+     *
+     * @param guest the guest that was inserted, with its id assigned
+     */
+    public synchronized void inserted(Guest guest) {
+        generation++;
+        long timestamp = guest.getTimestamp().getTime();
+        long id = guest.getId();
+        Iterator<Map.Entry<Key, Page>> iterator = pages.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, Page> entry = iterator.next();
+            Key key = entry.getKey();
+            List<Guest> guests = entry.getValue().guests;
+            int direction = key.backwards ? -1 : 1;
+            boolean afterCursor = key.timestamp == null
+                    || direction * compare(timestamp, id, key.timestamp, key.id) > 0;
+            if (!afterCursor) {
+                continue;
+            }
+            if (guests.size() < key.limit) {
+                iterator.remove();
+            } else {
+                Guest last = guests.get(guests.size() - 1);
+                if (direction * compare(timestamp, id, last.getTimestamp().getTime(), last.getId()) < 0) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all cached pages.
+     */
+    public synchronized void clear() {
+        generation++;
+        pages.clear();
+    }
+
+    // Helper method, compares two guests in the order of their timestamps and ids
+    private static int compare(long timestamp, long id, long otherTimestamp, long otherId) {
+        int byTimestamp = Long.compare(timestamp, otherTimestamp);
+        return byTimestamp != 0 ? byTimestamp : Long.compare(id, otherId);
+    }
+
+    private static final class Page {
+        final List<Guest> guests;
+        final long expires;
+
+        Page(List<Guest> guests, long expires) {
+            this.guests = guests;
+            this.expires = expires;
+        }
+    }
+
+    private static final class Key {
+        final Long timestamp;
+        final Long id;
+        final int limit;
+        final boolean backwards;
+
+        Key(Long timestamp, Long id, int limit, boolean backwards) {
+            this.timestamp = timestamp;
+            this.id = id;
+            this.limit = limit;
+            this.backwards = backwards;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return limit == key.limit && backwards == key.backwards
+                    && Objects.equals(timestamp, key.timestamp) && Objects.equals(id, key.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(timestamp, id, limit, backwards);
+        }
+    }
+}
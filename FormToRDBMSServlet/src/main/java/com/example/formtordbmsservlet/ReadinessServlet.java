@@ -0,0 +1,37 @@
+package com.example.formtordbmsservlet;
+
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+
+/**
+ * Handles GET requests to /ready, for load balancers and health checks: answers 200 once the database is ready,
+ * see {@link DBUtil#isReady()}, and 503 while it is being connected to. It never waits for the database.
+ *
+ * @author Björn Forsberg
+ */
+@WebServlet(name = "readinessServlet", urlPatterns = "/ready")
+public class ReadinessServlet extends HttpServlet {
+
+    /**
+     * Answers whether the database is ready, as plain text.
+     *
+     * @param request  The HTTP request.
+     * @param response The HTTP response.
+     * @throws IOException If an I/O error occurs.
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        boolean ready = DBUtil.isReady();
+        if (!ready) {
+            DBUtil.start(); // tries again if connecting failed
+        }
+        response.setStatus(ready ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setContentType("text/plain;charset=UTF-8");
+        response.setHeader("Cache-Control", "no-store");
+        response.getWriter().println(ready ? "ready" : "starting");
+    }
+}
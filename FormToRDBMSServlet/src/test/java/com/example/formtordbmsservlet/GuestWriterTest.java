@@ -0,0 +1,201 @@
+package com.example.formtordbmsservlet;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the {@link GuestWriter} against a stub sink instead of the database: guests are written in batches, posting
+ * is pushed back when the queue is full, a failed batch is written one guest at a time, and closing writes the
+ * accepted guests but gives up at its deadline.
+ *
+ * @author Björn Forsberg
+ */
+class GuestWriterTest {
+
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    @Test
+    void writesTheGuestsWaitingInOneBatch() throws InterruptedException {
+        StubSink sink = new StubSink();
+        sink.hold();
+        Guest first = guest("first");
+        List<Guest> waiting = Arrays.asList(guest("a"), guest("b"), guest("c"));
+        try (GuestWriter writer = new GuestWriter(sink, 10, 1000, TIMEOUT_MILLIS)) {
+            assertTrue(writer.post(first));
+            sink.awaitHeld();
+            for (Guest guest : waiting) {
+                assertTrue(writer.post(guest));
+            }
+            assertEquals(3, writer.getQueued());
+            sink.release();
+        }
+        assertEquals(Arrays.asList(Collections.singletonList(first), waiting), sink.batches);
+    }
+
+    @Test
+    void pushesBackWhenTheQueueIsFull() throws InterruptedException {
+        StubSink sink = new StubSink();
+        sink.hold();
+        List<Guest> accepted = new ArrayList<>();
+        try (GuestWriter writer = new GuestWriter(sink, 2, 50, TIMEOUT_MILLIS)) {
+            accepted.add(guest("written"));
+            assertTrue(writer.post(accepted.get(0)));
+            sink.awaitHeld();
+            for (int i = 0; i < 2; i++) {
+                accepted.add(guest("queued " + i));
+                assertTrue(writer.post(accepted.get(i + 1)));
+            }
+            long start = System.nanoTime();
+            assertFalse(writer.post(guest("rejected")), "the queue stays full");
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50), "posting waits for room");
+            sink.release();
+        }
+        assertEquals(accepted, sink.written());
+    }
+
+    @Test
+    void writesAFailedBatchOneByOne() throws InterruptedException {
+        StubSink sink = new StubSink();
+        sink.hold();
+        Guest first = guest("first");
+        Guest bad = guest("bad");
+        List<Guest> good = Arrays.asList(guest("a"), guest("b"), guest("c"));
+        sink.failing = bad;
+        try (GuestWriter writer = new GuestWriter(sink, 10, 1000, TIMEOUT_MILLIS)) {
+            writer.post(first);
+            sink.awaitHeld();
+            writer.post(good.get(0));
+            writer.post(bad);
+            writer.post(good.get(1));
+            writer.post(good.get(2));
+            sink.release();
+        }
+        assertEquals(Arrays.asList(Collections.singletonList(first)), sink.batches, "the failed batch is not written");
+        assertEquals(good, sink.singles, "the other guests of the failed batch are written");
+    }
+
+    @Test
+    void closingWritesTheAcceptedGuests() {
+        StubSink sink = new StubSink();
+        List<Guest> posted = new ArrayList<>();
+        GuestWriter writer = new GuestWriter(sink, 1000, 1000, TIMEOUT_MILLIS);
+        for (int i = 0; i < 500; i++) {
+            posted.add(guest("guest " + i));
+            assertTrue(writer.post(posted.get(i)));
+        }
+        writer.close();
+        assertEquals(posted, sink.written());
+        for (List<Guest> batch : sink.batches) {
+            assertTrue(batch.size() <= DBUtil.JDBC_BATCH_SIZE, "batches are bounded");
+        }
+        assertFalse(writer.post(guest("late")), "a closed writer accepts no guests");
+        assertEquals(posted, sink.written());
+    }
+
+    @Test
+    void closingGivesUpAtItsDeadline() throws InterruptedException {
+        StubSink sink = new StubSink();
+        sink.hold();
+        GuestWriter writer = new GuestWriter(sink, 10, 1000, 200);
+        writer.post(guest("held"));
+        sink.awaitHeld();
+        writer.post(guest("dropped"));
+        long start = System.nanoTime();
+        writer.close();
+        long closing = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(closing >= 200 && closing < 5000, "closing took " + closing + " ms");
+        assertEquals(Collections.emptyList(), sink.written(), "the guests not written by the deadline are dropped");
+        assertEquals(0, writer.getQueued());
+    }
+
+    @Test
+    void waitsForTheDatabase() throws InterruptedException {
+        StubSink sink = new StubSink();
+        sink.ready = false;
+        Guest guest = guest("waiting");
+        try (GuestWriter writer = new GuestWriter(sink, 10, 1000, TIMEOUT_MILLIS)) {
+            writer.post(guest);
+            Thread.sleep(200);
+            assertEquals(Collections.emptyList(), sink.written(), "nothing is written before the database is ready");
+            sink.ready = true;
+        }
+        assertEquals(Collections.singletonList(guest), sink.written());
+    }
+
+    // Helper method, a guest that is told apart by its name
+    private static Guest guest(String name) {
+        return new Guest(name, name + "@example.com", "https://example.com/", "Hello", new Date());
+    }
+
+    /**
+     * Records what the writer writes. A batch can be held until the test releases it, and one guest can be made to
+     * fail, both in its batch and on its own.
+     */
+    private static final class StubSink implements GuestWriter.Sink {
+        final List<List<Guest>> batches = Collections.synchronizedList(new ArrayList<>());
+        final List<Guest> singles = Collections.synchronizedList(new ArrayList<>());
+        volatile boolean ready = true;
+        volatile Guest failing = null;
+        private final CountDownLatch held = new CountDownLatch(1);
+        private volatile CountDownLatch release = new CountDownLatch(0);
+
+        void hold() {
+            release = new CountDownLatch(1);
+        }
+
+        void awaitHeld() throws InterruptedException {
+            assertTrue(held.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS), "the writer takes the first guest");
+        }
+
+        void release() {
+            release.countDown();
+        }
+
+        List<Guest> written() {
+            List<Guest> written = new ArrayList<>();
+            synchronized (batches) {
+                batches.forEach(written::addAll);
+            }
+            written.addAll(singles);
+            return written;
+        }
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void insertAll(List<Guest> guests) {
+            held.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException("Interrupted while writing", e);
+            }
+            if (guests.contains(failing)) {
+                throw new IllegalStateException("Could not write " + failing);
+            }
+            batches.add(new ArrayList<>(guests));
+        }
+
+        @Override
+        public void insert(Guest guest) {
+            if (guest == failing) {
+                throw new IllegalStateException("Could not write " + guest);
+            }
+            singles.add(guest);
+        }
+    }
+}
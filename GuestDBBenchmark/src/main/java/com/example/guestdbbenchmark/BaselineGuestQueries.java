@@ -0,0 +1,58 @@
+package com.example.guestdbbenchmark;
+
+import com.example.transactionservlet.Guest;
+import com.example.transactionservlet.GuestEntry;
+import com.example.transactionservlet.Image;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.JoinType;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Root;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Frozen copy of how {@code GuestDB} read a page of guests before its queries were named: the criteria query is
+ * built through the {@link CriteriaBuilder} on every call. {@link GuestDBBenchmark} measures the named queries
+ * against it; do not change it.
+ *
+ * @author Björn Forsberg
+ */
+public final class BaselineGuestQueries {
+
+    private BaselineGuestQueries() {
+    }
+
+    /**
+     * Reads the entries following a cursor in the given direction.
+     *
+     * @param em              the entity manager
+     * @param cursorTimestamp the timestamp of the cursor, or null for the first page
+     * @param cursorId        the id of the cursor; ignored for the first page
+     * @param limit           the maximum number of entries
+     * @param backwards       whether the page is read backwards from the cursor
+     * @return the entries, in the order they were read
+     */
+    public static List<GuestEntry> getPage(EntityManager em, Date cursorTimestamp, Long cursorId, int limit,
+                                           boolean backwards) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<GuestEntry> cq = cb.createQuery(GuestEntry.class);
+        Root<Guest> rootEntry = cq.from(Guest.class);
+        Join<Guest, Image> image = rootEntry.join("image", JoinType.LEFT);
+        cq.select(cb.construct(GuestEntry.class, rootEntry.get("id"), rootEntry.get("name"), rootEntry.get("email"),
+                rootEntry.get("homepage"), rootEntry.get("comment"), rootEntry.get("timestamp"),
+                image.get("id"), image.get("mimeType")));
+        Path<Date> timestamp = rootEntry.get("timestamp");
+        Path<Long> id = rootEntry.get("id");
+        if (cursorTimestamp != null) {
+            cq.where(backwards
+                    ? cb.or(cb.lessThan(timestamp, cursorTimestamp), cb.and(cb.equal(timestamp, cursorTimestamp), cb.lessThan(id, cursorId)))
+                    : cb.or(cb.greaterThan(timestamp, cursorTimestamp), cb.and(cb.equal(timestamp, cursorTimestamp), cb.greaterThan(id, cursorId))));
+        }
+        cq.orderBy(backwards ? cb.desc(timestamp) : cb.asc(timestamp), backwards ? cb.desc(id) : cb.asc(id));
+        return em.createQuery(cq).setMaxResults(limit).getResultList();
+    }
+}
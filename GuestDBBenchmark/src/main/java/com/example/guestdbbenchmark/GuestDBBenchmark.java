@@ -0,0 +1,105 @@
+package com.example.guestdbbenchmark;
+
+import com.example.transactionservlet.DBUtil;
+import com.example.transactionservlet.Guest;
+import com.example.transactionservlet.GuestDB;
+import com.example.transactionservlet.GuestEntry;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.stat.Statistics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of reading a page of guest book entries, the query behind the guest book page, on an
+ * in-memory H2 database holding 1,000 guests:
+ * <ul>
+ *     <li>{@link #criteria()} - the criteria query built on every call, as {@link BaselineGuestQueries} does;</li>
+ *     <li>{@link #named()} - {@link GuestDB#page(Date, Long, int)}, which runs the named query of {@link Guest},
+ *     compiled once and served from the query plan cache.</li>
+ * </ul>
+ * Both read the page from the database: the page cache of {@link GuestDB} is turned off, and the forked JVM turns
+ * off the query cache of Hibernate, so the difference is the cost of building and translating the query. The first page and a page after a cursor are
+ * measured. At the end of each run the query plan cache hits and misses are printed, which shows whether the named
+ * queries are served from the plan cache. Run it with the GC profiler to also get the allocation rate:
+ * <pre>
+ * java -jar target/benchmarks.jar -prof gc
+ * java -jar target/benchmarks.jar -prof gc -p cursor=after
+ * </pre>
+ *
+ * @author Björn Forsberg
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dhibernate.cache.use_query_cache=false")
+public class GuestDBBenchmark {
+
+    private static final int GUESTS = 1000;
+    private static final int LIMIT = 20;
+
+    @Param({"first", "after"})
+    public String cursor;
+
+    private EntityManagerFactory emf;
+    private Date cursorTimestamp;
+    private Long cursorId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        GuestDB.setPageCacheTtl(0);
+        emf = DBUtil.start().join();
+        if (GuestDB.page(null, null, 1).isEmpty()) {
+            List<Guest> guests = new ArrayList<>(GUESTS);
+            for (int i = 0; i < GUESTS; i++) {
+                guests.add(new Guest("Guest " + i, "guest" + i + "@example.com", "https://example.com/" + i,
+                        "Comment " + i, new Date(1_000_000_000_000L + i * 60_000L)));
+            }
+            GuestDB.insertAll(guests);
+        }
+        if (cursor.equals("after")) {
+            GuestEntry middle = GuestDB.page(null, null, GUESTS / 2).get(GUESTS / 2 - 1);
+            cursorTimestamp = middle.getTimestamp();
+            cursorId = middle.getId();
+        }
+        DBUtil.getStatistics().clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Statistics statistics = DBUtil.getStatistics();
+        System.out.println();
+        System.out.println("Query plan cache: " + statistics.getQueryPlanCacheHitCount() + " hits, "
+                + statistics.getQueryPlanCacheMissCount() + " misses");
+    }
+
+    @Benchmark
+    public List<GuestEntry> criteria() {
+        try (EntityManager em = emf.createEntityManager()) {
+            return BaselineGuestQueries.getPage(em, cursorTimestamp, cursorId, LIMIT, false);
+        }
+    }
+
+    @Benchmark
+    public List<GuestEntry> named() {
+        return GuestDB.page(cursorTimestamp, cursorId, LIMIT);
+    }
+}
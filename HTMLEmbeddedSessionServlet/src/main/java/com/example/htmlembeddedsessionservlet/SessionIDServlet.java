@@ -1,8 +1,13 @@
 package com.example.htmlembeddedsessionservlet;
 
+import com.example.templateengine.CompiledTemplate;
+import com.example.templateengine.Mixer;
+import com.example.templateengine.TemplateRegistry;
+
 import java.io.IOException;
 import java.io.File;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
@@ -21,7 +26,7 @@ import jakarta.servlet.http.HttpServletResponse;
 @WebServlet("/")
 public class SessionIDServlet extends HttpServlet {
 
-    private static String htmlTemplate = null;
+    private static Supplier<CompiledTemplate> htmlTemplate = null;
 
     /**
      * This method is called once when the Servlet is initialized.
@@ -30,7 +35,7 @@ public class SessionIDServlet extends HttpServlet {
     @Override
     public void init() {
         if (htmlTemplate == null) {
-            htmlTemplate = Mixer.getContent(new File(getServletContext().getRealPath("index.html")));
+            htmlTemplate = TemplateRegistry.get(new File(getServletContext().getRealPath("index.html")));
         }
     }
 
@@ -45,9 +50,9 @@ public class SessionIDServlet extends HttpServlet {
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
             throws IOException {
         String sessionId = UUID.randomUUID().toString();
-        Mixer mixer = new Mixer(htmlTemplate);
+        Mixer mixer = new Mixer(htmlTemplate.get());
         mixer.add("---session-id---", sessionId);
         response.setContentType("text/html;charset=UTF-8");
-        response.getWriter().print(mixer.getMix());
+        mixer.writeMix(response.getOutputStream(), response::setContentLength);
     }
 }
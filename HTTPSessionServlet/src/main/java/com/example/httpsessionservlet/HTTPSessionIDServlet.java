@@ -1,7 +1,12 @@
 package com.example.httpsessionservlet;
 
+import com.example.templateengine.CompiledTemplate;
+import com.example.templateengine.Mixer;
+import com.example.templateengine.TemplateRegistry;
+
 import java.io.IOException;
 import java.io.File;
+import java.util.function.Supplier;
 
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
@@ -21,7 +26,7 @@ import jakarta.servlet.http.HttpSession;
 @WebServlet("/")
 public class HTTPSessionIDServlet extends HttpServlet {
 
-    private static String htmlTemplate = null;
+    private static Supplier<CompiledTemplate> htmlTemplate = null;
 
     /**
      * This method is called once when the Servlet is initialized.
@@ -30,7 +35,7 @@ public class HTTPSessionIDServlet extends HttpServlet {
     @Override
     public void init() {
         if (htmlTemplate == null) {
-            htmlTemplate = Mixer.getContent(new File(getServletContext().getRealPath("index.html")));
+            htmlTemplate = TemplateRegistry.get(new File(getServletContext().getRealPath("index.html")));
         }
     }
 
@@ -46,7 +51,7 @@ public class HTTPSessionIDServlet extends HttpServlet {
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
             throws IOException {
         response.setContentType("text/html;charset=UTF-8");
-        response.getWriter().print(generateHTML(getSessionIDFrom(request)));
+        getMixer(getSessionIDFrom(request)).writeMix(response.getOutputStream(), response::setContentLength);
     }
 
     /**
@@ -66,14 +71,14 @@ public class HTTPSessionIDServlet extends HttpServlet {
     }
 
     /**
-     * Generates HTML by embedding the given session ID into the HTML template.
+     * Creates a Mixer that embeds the given session ID into the HTML template.
      *
      * @param sessionId the session ID
-     * @return the generated HTML
+     * @return the Mixer that generates the HTML
      */
-    private String generateHTML(String sessionId) {
-        Mixer mixer = new Mixer(htmlTemplate);
+    private Mixer getMixer(String sessionId) {
+        Mixer mixer = new Mixer(htmlTemplate.get());
         mixer.add("---session-id---", sessionId);
-        return mixer.getMix();
+        return mixer;
     }
 }
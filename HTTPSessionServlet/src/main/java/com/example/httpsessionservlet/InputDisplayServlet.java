@@ -1,7 +1,13 @@
 package com.example.httpsessionservlet;
 
+import com.example.templateengine.CompiledTemplate;
+import com.example.templateengine.Escaping;
+import com.example.templateengine.Mixer;
+import com.example.templateengine.TemplateRegistry;
+
 import java.io.IOException;
 import java.io.File;
+import java.util.function.Supplier;
 
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
@@ -24,16 +30,18 @@ import jakarta.servlet.http.HttpSession;
 @WebServlet("/display")
 public class InputDisplayServlet extends HttpServlet {
 
-    private static String htmlTemplate = null;
+    private static Supplier<CompiledTemplate> htmlTemplate = null;
 
     /**
      * This method is called once when the Servlet is initialized.
      * It reads an HTML template from a file which is later used in GET requests.
+     * The request values put into the template are HTML-escaped when they are rendered.
      */
     @Override
     public void init() {
         if (htmlTemplate == null) {
-            htmlTemplate = Mixer.getContent(new File(getServletContext().getRealPath("display.html")));
+            htmlTemplate = TemplateRegistry.get(new File(getServletContext().getRealPath("display.html")),
+                    template -> template.escape(Escaping.HTML, "---session-id---", "---name---", "---button---"));
         }
     }
 
@@ -49,20 +57,20 @@ public class InputDisplayServlet extends HttpServlet {
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
             throws IOException {
         response.setContentType("text/html;charset=UTF-8");
-        response.getWriter().print(getHTML(request));
+        getMixer(request).writeMix(response.getOutputStream(), response::setContentLength);
     }
 
     /**
      * Creates a Mixer with the HTML template, configures it with data from the request,
-     * and returns the resulting HTML.
+     * and returns it.
      *
      * @param request the HttpServletRequest
-     * @return the generated HTML
+     * @return the configured Mixer
      */
-    private String getHTML(HttpServletRequest request) {
-        Mixer mixer = new Mixer(htmlTemplate);
+    private Mixer getMixer(HttpServletRequest request) {
+        Mixer mixer = new Mixer(htmlTemplate.get());
         configureMixerFromRequest(request, mixer);
-        return mixer.getMix();
+        return mixer;
     }
 
     /**
@@ -0,0 +1,260 @@
+package com.example.mixerbenchmark;
+
+import com.example.templateengine.BaselineMixer;
+import com.example.templateengine.CompiledTemplate;
+import com.example.templateengine.FragmentCache;
+import com.example.templateengine.Mixer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@code getMix()} on the real servlet templates, filled with 1 to 10,000 repeated
+ * entries the way the servlets fill them. Every engine change is measured against {@link BaselineMixer}, the
+ * Mixer the servlets used before the engine work started. The baseline and the templates are the fixtures of the
+ * template-engine tests, from its test jar:
+ * <ul>
+ *     <li>{@link #baseline()} - the frozen baseline, given the template as a string;</li>
+ *     <li>{@link #current()} - the current Mixer, given the template as a string, so it compiles it on every call;</li>
+ *     <li>{@link #compiled()} - the current Mixer on a template compiled once, which is what the servlets do;</li>
+ *     <li>{@link #compiledStream()} - as compiled, streamed UTF-8 encoded like the servlets write the page;</li>
+ *     <li>{@link #compiledBytes()} - as compiled, rendered UTF-8 encoded into one buffer sized up front, like the
+ *     servlets write a small page;</li>
+ *     <li>{@link #cachedStream()} - as compiledStream, with the rows taken from a warm {@link FragmentCache}.</li>
+ * </ul>
+ * Run it with the GC profiler to also get the allocation rate:
+ * <pre>
+ * java -jar target/benchmarks.jar -prof gc
+ * java -jar target/benchmarks.jar -prof gc -p template=guestbook -p entries=1000
+ * </pre>
+ * The baseline is quadratic in the number of entries, so its 10,000 entry runs take a while.
+ *
+ * @author Björn Forsberg
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MixerBenchmark {
+
+    @Param({"guestbook", "envvars", "display"})
+    public String template;
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int entries;
+
+    private String html;
+    private CompiledTemplate compiledTemplate;
+    private String context;
+    private String[] markers;
+    private String[][] rows;
+    private String[] globalMarkers;
+    private String[] globalValues;
+    private FragmentCache fragmentCache;
+    private final OutputStream sink = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    /**
+     * Loads the template and generates the entries. Entries are generated once, so only the engine is measured.
+     *
+     * @throws IOException if the template cannot be read
+     */
+    @Setup
+    public void setUp() throws IOException {
+        switch (template) {
+            case "guestbook":
+                html = load("guest-book-template.html");
+                context = "<!--===entries===-->";
+                markers = new String[]{"---no---", "---time---", "---homepage---", "---name---", "---email---", "---comment---"};
+                globalMarkers = new String[0];
+                break;
+            case "envvars":
+                html = load("environment-variables-template.html");
+                context = "<!--==xxx==-->";
+                markers = new String[]{"---name---", "---value---"};
+                globalMarkers = new String[0];
+                break;
+            case "display":
+                html = load("display.html");
+                context = "<!--===form===-->";
+                markers = new String[]{"---name---", "---button---"};
+                globalMarkers = new String[]{"---session-id---"};
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown template: " + template);
+        }
+        compiledTemplate = CompiledTemplate.compile(html);
+
+        rows = new String[entries][markers.length];
+        for (int i = 0; i < entries; i++) {
+            for (int m = 0; m < markers.length; m++) {
+                rows[i][m] = value(markers[m], i);
+            }
+        }
+        fragmentCache = new FragmentCache(Long.MAX_VALUE);
+        globalValues = new String[globalMarkers.length];
+        for (int m = 0; m < globalMarkers.length; m++) {
+            globalValues[m] = value(globalMarkers[m], 0);
+        }
+    }
+
+    /**
+     * Mixes with the frozen baseline Mixer.
+     *
+     * @return the mixed page
+     */
+    @Benchmark
+    public String baseline() {
+        BaselineMixer mixer = new BaselineMixer(html);
+        for (String[] row : rows) {
+            for (int m = 0; m < markers.length; m++) {
+                mixer.add(context, markers[m], row[m]);
+            }
+        }
+        for (int m = 0; m < globalMarkers.length; m++) {
+            mixer.add(globalMarkers[m], globalValues[m]);
+        }
+        return mixer.getMix();
+    }
+
+    /**
+     * Mixes with the current Mixer, compiling the template on every call.
+     *
+     * @return the mixed page
+     */
+    @Benchmark
+    public String current() {
+        return fill(new Mixer(html)).getMix();
+    }
+
+    /**
+     * Mixes with the current Mixer on a template compiled once.
+     *
+     * @return the mixed page
+     */
+    @Benchmark
+    public String compiled() {
+        return fill(new Mixer(compiledTemplate)).getMix();
+    }
+
+    /**
+     * Mixes with the current Mixer on a template compiled once and writes the page to a stream.
+     *
+     * @return the Mixer, so that the work is not optimized away
+     * @throws IOException never, the stream discards what it gets
+     */
+    @Benchmark
+    public Mixer compiledStream() throws IOException {
+        Mixer mixer = fill(new Mixer(compiledTemplate));
+        mixer.writeMix(sink);
+        return mixer;
+    }
+
+    /**
+     * Mixes with the current Mixer on a template compiled once into a UTF-8 encoded array, sized from the template and
+     * the values before the page is rendered.
+     *
+     * @return the mixed page
+     */
+    @Benchmark
+    public byte[] compiledBytes() {
+        return fill(new Mixer(compiledTemplate)).getMixBytes();
+    }
+
+    /**
+     * Mixes with the current Mixer on a template compiled once, taking the rows from a fragment cache that holds
+     * them all after the first call, and writes the page to a stream.
+     *
+     * @return the Mixer, so that the work is not optimized away
+     * @throws IOException never, the stream discards what it gets
+     */
+    @Benchmark
+    public Mixer cachedStream() throws IOException {
+        Mixer mixer = new Mixer(compiledTemplate);
+        for (int i = 0; i < rows.length; i++) {
+            String[] row = rows[i];
+            mixer.addRow(context, fragmentCache, i, 0, () -> {
+                Map<String, String> values = new HashMap<>();
+                for (int m = 0; m < markers.length; m++) {
+                    values.put(markers[m], row[m]);
+                }
+                return values;
+            });
+        }
+        for (int m = 0; m < globalMarkers.length; m++) {
+            mixer.add(globalMarkers[m], globalValues[m]);
+        }
+        mixer.writeMix(sink);
+        return mixer;
+    }
+
+    private Mixer fill(Mixer mixer) {
+        for (String[] row : rows) {
+            for (int m = 0; m < markers.length; m++) {
+                mixer.add(context, markers[m], row[m]);
+            }
+        }
+        for (int m = 0; m < globalMarkers.length; m++) {
+            mixer.add(globalMarkers[m], globalValues[m]);
+        }
+        return mixer;
+    }
+
+    // Helper method, values roughly as long as the ones the servlets put in
+    private static String value(String marker, int entry) {
+        switch (marker) {
+            case "---no---":
+                return Integer.toString(entry + 1);
+            case "---time---":
+                return "Tue Oct 17 12:00:00 CEST 2023";
+            case "---email---":
+                return "guest" + entry + "@example.com";
+            case "---homepage---":
+                return "https://example.com/~guest" + entry;
+            case "---comment---":
+                return "Comment number " + entry + ", long enough to look like something a guest would write in a guest book.";
+            default:
+                return marker.replace("-", "") + " " + entry;
+        }
+    }
+
+    private static String load(String name) throws IOException {
+        try (InputStream in = MixerBenchmark.class.getResourceAsStream("/templates/" + name)) {
+            if (in == null) {
+                throw new IOException("Template not found: " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
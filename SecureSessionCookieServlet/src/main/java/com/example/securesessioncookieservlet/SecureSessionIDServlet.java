@@ -1,8 +1,13 @@
 package com.example.securesessioncookieservlet;
 
+import com.example.templateengine.CompiledTemplate;
+import com.example.templateengine.Mixer;
+import com.example.templateengine.TemplateRegistry;
+
 import java.io.IOException;
 import java.io.File;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
@@ -26,7 +31,7 @@ import jakarta.servlet.http.Cookie;
 @WebServlet("/")
 public class SecureSessionIDServlet extends HttpServlet {
 
-    private static String htmlTemplate = null;
+    private static Supplier<CompiledTemplate> htmlTemplate = null;
 
     /**
      * Initializes the servlet. Reads the HTML template from a file.
@@ -34,7 +39,7 @@ public class SecureSessionIDServlet extends HttpServlet {
     @Override
     public void init() {
         if (htmlTemplate == null) {
-            htmlTemplate = Mixer.getContent(new File(getServletContext().getRealPath("index.html")));
+            htmlTemplate = TemplateRegistry.get(new File(getServletContext().getRealPath("index.html")));
         }
     }
 
@@ -52,7 +57,7 @@ public class SecureSessionIDServlet extends HttpServlet {
         Cookie cookie = getSecureCookie();
         response.addCookie(cookie);
         response.setContentType("text/html;charset=UTF-8");
-        response.getWriter().print(generateHTML(getSessionID(cookie)));
+        getMixer(getSessionID(cookie)).writeMix(response.getOutputStream(), response::setContentLength);
     }
 
     /**
@@ -82,15 +87,15 @@ public class SecureSessionIDServlet extends HttpServlet {
     }
 
     /**
-     * Generates an HTML page that includes the given session ID by substituting the session ID into the HTML template.
+     * Creates a Mixer for an HTML page that includes the given session ID by substituting the session ID into the HTML template.
      *
      * @param sessionId the session ID
-     * @return the generated HTML page
+     * @return the Mixer that generates the HTML page
      */
-    private String generateHTML(String sessionId) {
-        Mixer mixer = new Mixer(htmlTemplate);
+    private Mixer getMixer(String sessionId) {
+        Mixer mixer = new Mixer(htmlTemplate.get());
         mixer.add("---session-id---", sessionId);
-        return mixer.getMix();
+        return mixer;
     }
 }
 
@@ -1,7 +1,13 @@
 package com.example.sessioncookieservlet;
 
+import com.example.templateengine.CompiledTemplate;
+import com.example.templateengine.Escaping;
+import com.example.templateengine.Mixer;
+import com.example.templateengine.TemplateRegistry;
+
 import java.io.IOException;
 import java.io.File;
+import java.util.function.Supplier;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
@@ -21,16 +27,18 @@ import jakarta.servlet.http.Cookie;
 @WebServlet("/display")
 public class InputDisplayServlet extends HttpServlet {
 
-    private static String htmlTemplate = null;
+    private static Supplier<CompiledTemplate> htmlTemplate = null;
 
     /**
      * This method is called once when the Servlet is initialized.
      * It reads an HTML template from a file which is later used in GET requests.
+     * The request values put into the template are HTML-escaped when they are rendered.
      */
     @Override
     public void init() {
         if (htmlTemplate == null) {
-            htmlTemplate = Mixer.getContent(new File(getServletContext().getRealPath("display.html")));
+            htmlTemplate = TemplateRegistry.get(new File(getServletContext().getRealPath("display.html")),
+                    template -> template.escape(Escaping.HTML, "---session-id---", "---name---", "---button---"));
         }
     }
 
@@ -45,10 +53,10 @@ public class InputDisplayServlet extends HttpServlet {
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
             throws IOException {
-        Mixer mixer = new Mixer(htmlTemplate);
+        Mixer mixer = new Mixer(htmlTemplate.get());
         configureMixerFromRequest(request, mixer);
         response.setContentType("text/html;charset=UTF-8");
-        response.getWriter().print(mixer.getMix());
+        mixer.writeMix(response.getOutputStream(), response::setContentLength);
     }
 
     /**
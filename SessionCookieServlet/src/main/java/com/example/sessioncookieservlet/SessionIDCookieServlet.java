@@ -1,8 +1,13 @@
 package com.example.sessioncookieservlet;
 
+import com.example.templateengine.CompiledTemplate;
+import com.example.templateengine.Mixer;
+import com.example.templateengine.TemplateRegistry;
+
 import java.io.IOException;
 import java.io.File;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.Cookie;
@@ -22,7 +27,7 @@ import jakarta.servlet.http.HttpServletResponse;
 @WebServlet("/")
 public class SessionIDCookieServlet extends HttpServlet {
 
-    private static String htmlTemplate = null;
+    private static Supplier<CompiledTemplate> htmlTemplate = null;
 
     /**
      * This method is called once when the Servlet is initialized.
@@ -31,7 +36,7 @@ public class SessionIDCookieServlet extends HttpServlet {
     @Override
     public void init() {
         if (htmlTemplate == null) {
-            htmlTemplate = Mixer.getContent(new File(getServletContext().getRealPath("index.html")));
+            htmlTemplate = TemplateRegistry.get(new File(getServletContext().getRealPath("index.html")));
         }
     }
 
@@ -48,7 +53,7 @@ public class SessionIDCookieServlet extends HttpServlet {
         Cookie cookie = setCookie();
         response.addCookie(cookie);
         response.setContentType("text/html;charset=UTF-8");
-        response.getWriter().print(generateHTML(getSessionID(cookie)));
+        getMixer(getSessionID(cookie)).writeMix(response.getOutputStream(), response::setContentLength);
     }
 
     /**
@@ -74,14 +79,14 @@ public class SessionIDCookieServlet extends HttpServlet {
     }
 
     /**
-     * Generates HTML by embedding the given session ID into the HTML template.
+     * Creates a Mixer that embeds the given session ID into the HTML template.
      *
      * @param sessionId the session ID
-     * @return the generated HTML
+     * @return the Mixer that generates the HTML
      */
-    private String generateHTML(String sessionId) {
-        Mixer mixer = new Mixer(htmlTemplate);
+    private Mixer getMixer(String sessionId) {
+        Mixer mixer = new Mixer(htmlTemplate.get());
         mixer.add("---session-id---", sessionId);
-        return mixer.getMix();
+        return mixer;
     }
 }
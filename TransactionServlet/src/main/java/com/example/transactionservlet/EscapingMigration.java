@@ -0,0 +1,178 @@
+package com.example.transactionservlet;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.apache.commons.text.StringEscapeUtils;
+import org.hibernate.Session;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+/**
+ * One-off migration of the guests stored while the guest book escaped its input. The name, email, homepage and
+ * comment of those guests were stored HTML escaped with escapeHtml4; now that the values are escaped by the template
+ * when they are rendered, they would be shown escaped twice. The migration unescapes them with unescapeHtml4.
+ * <p>
+ * The migration is versioned in the table guestbook_schema_version, which holds a row for each version applied:
+ * <ol>
+ *     <li>{@value #MARKED}: the column escaped_on_input is added, false by default, and set to true for every guest
+ *     in the table by one update, committed together with the row of the version;</li>
+ *     <li>{@value #UNESCAPED}: the marked guests are unescaped in batches of {@value #BATCH_SIZE}, read in the order
+ *     of their ids through the primary key, each batch committed with its marks cleared, so an unescaping that is cut
+ *     short carries on where it stopped. The row of the version is written once no marked guest is left.</li>
+ * </ol>
+ * Once both versions are recorded, the migration only reads the version table. It is run by {@link DBUtil} when the
+ * EntityManagerFactory is created, before the database is ready, so a node never writes a guest before it has run.
+ * <p>
+ * The migration must not overlap with nodes of the version that escaped its input: a guest they insert after the
+ * guests are marked is stored escaped but not marked, and is never unescaped. Stop every such node before the first
+ * node of this version is started, rather than replacing them one at a time; once the migration has run on one node,
+ * the others may be started in any order.
+ *
+ * @author Björn Forsberg
+ */
+final class EscapingMigration {
+
+    private static final Logger LOGGER = Logger.getLogger(EscapingMigration.class.getName());
+    private static final int MARKED = 1;
+    private static final int UNESCAPED = 2;
+    private static final int BATCH_SIZE = 500;
+
+    private EscapingMigration() {
+    }
+
+    /**
+     * Applies the versions of the migration that have not been applied yet.
+     *
+     * @param emf the EntityManagerFactory
+     */
+    static void run(EntityManagerFactory emf) {
+        try (EntityManager em = emf.createEntityManager()) {
+            em.unwrap(Session.class).doWork(EscapingMigration::migrate);
+        }
+    }
+
+    // Helper method, applies the versions after the last one applied
+    private static void migrate(Connection connection) throws SQLException {
+        int version = version(connection);
+        if (version < MARKED) {
+            mark(connection);
+        }
+        if (version < UNESCAPED) {
+            unescape(connection);
+        }
+    }
+
+    // Helper method, the last version applied, creating the version table if it is missing
+    private static int version(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS guestbook_schema_version "
+                    + "(version INT NOT NULL PRIMARY KEY, applied TIMESTAMP NOT NULL)");
+            connection.commit();
+            try (ResultSet rows = statement.executeQuery("SELECT MAX(version) FROM guestbook_schema_version")) {
+                rows.next();
+                int version = rows.getInt(1);
+                connection.commit();
+                return version;
+            }
+        }
+    }
+
+    // Helper method, adds the column escaped_on_input unless a run cut short added it, and marks every guest
+    private static void mark(Connection connection) throws SQLException {
+        if (!hasMarks(connection)) {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("ALTER TABLE Guest ADD COLUMN escaped_on_input BOOLEAN DEFAULT FALSE NOT NULL");
+            }
+            connection.commit();
+        }
+        try (Statement statement = connection.createStatement()) {
+            int marked = statement.executeUpdate("UPDATE Guest SET escaped_on_input = TRUE");
+            applied(connection, MARKED);
+            connection.commit();
+            LOGGER.info("Marked " + marked + " guests stored escaped");
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+
+    // Helper method, whether the column that marks the guests to unescape exists
+    private static boolean hasMarks(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeQuery("SELECT escaped_on_input FROM Guest WHERE 1 = 0").close();
+            return true;
+        } catch (SQLException e) {
+            connection.rollback();
+            return false;
+        }
+    }
+
+    // Helper method, unescapes the marked guests a batch at a time and records the version once none is left
+    private static void unescape(Connection connection) throws SQLException {
+        int unescaped = 0;
+        long lastId = Long.MIN_VALUE;
+        while (true) {
+            long[] batch = unescapeBatch(connection, lastId);
+            if (batch[0] == 0) {
+                break;
+            }
+            unescaped += (int) batch[0];
+            lastId = batch[1];
+        }
+        try {
+            applied(connection, UNESCAPED);
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        }
+        LOGGER.info("Unescaped " + unescaped + " guests stored escaped");
+    }
+
+    // Helper method, unescapes the next batch of marked guests after an id in one transaction and clears their
+    // marks; returns how many guests it unescaped and the id of the last one
+    private static long[] unescapeBatch(Connection connection, long afterId) throws SQLException {
+        int count = 0;
+        long lastId = afterId;
+        try (PreparedStatement select = connection.prepareStatement("SELECT id, name, email, homepage, comment "
+                + "FROM Guest WHERE id > ? AND escaped_on_input = TRUE ORDER BY id");
+             PreparedStatement update = connection.prepareStatement("UPDATE Guest SET name = ?, email = ?, "
+                     + "homepage = ?, comment = ?, escaped_on_input = FALSE WHERE id = ? AND escaped_on_input = TRUE")) {
+            select.setLong(1, afterId);
+            select.setMaxRows(BATCH_SIZE);
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    for (int column = 1; column <= 4; column++) {
+                        update.setString(column, StringEscapeUtils.unescapeHtml4(rows.getString(column + 1)));
+                    }
+                    lastId = rows.getLong(1);
+                    update.setLong(5, lastId);
+                    update.addBatch();
+                    count++;
+                }
+            }
+            if (count > 0) {
+                update.executeBatch();
+            }
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        }
+        return new long[]{count, lastId};
+    }
+
+    // Helper method, records a version as applied, in the transaction of its changes
+    private static void applied(Connection connection, int version) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO guestbook_schema_version (version, applied) VALUES (?, CURRENT_TIMESTAMP)")) {
+            insert.setInt(1, version);
+            insert.executeUpdate();
+        }
+    }
+}
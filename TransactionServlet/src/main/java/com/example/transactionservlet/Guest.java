@@ -1,6 +1,9 @@
 package com.example.transactionservlet;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Immutable;
 
 import java.io.Serializable;
 import java.util.Date;
@@ -9,14 +12,44 @@ import java.util.Date;
  * Represents a guest in the guestbook application and contains information about the guest,
  * such as their name, email, homepage, comment, and the timestamp of their visit.
  * It also contains a reference to an Image entity if the guest has uploaded an image.
+ * The index on (timestamp, id) serves the keyset paging of {@link GuestDB#page}; on an existing database it is
+ * created with: CREATE INDEX guest_timestamp_id ON Guest (timestamp, id);
+ * <p>
+ * Ids are drawn from the sequence guest_id_seq, a table on MySQL, by the pooled optimizer: one update of the sequence
+ * reserves 1000 ids, so a node reads it once per 1000 guests instead of once per guest. The sequence holds the upper
+ * end of the next block, so on an existing database it is started above the ids in use:
+ * <pre>
+ * CREATE TABLE guest_id_seq (next_val BIGINT);
+ * INSERT INTO guest_id_seq SELECT COALESCE(MAX(id), 0) + 1001 FROM Guest;
+ * DROP TABLE Guest_SEQ;
+ * </pre>
+ * <p>
+ * The named queries Guest.first, Guest.last, Guest.after and Guest.before read the guests from either end or from a
+ * cursor of :timestamp and :id, in either direction; see {@link GuestDB}. They are compiled once, and checked, when
+ * the EntityManagerFactory is created, instead of being built and translated on every request.
  *
  * @author Björn Forsberg
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_ONLY, region = DBUtil.GUEST_REGION)
+@Immutable
+@NamedQuery(name = "Guest.first", query = Guest.SELECT + "ORDER BY g.timestamp, g.id")
+@NamedQuery(name = "Guest.last", query = Guest.SELECT + "ORDER BY g.timestamp DESC, g.id DESC")
+@NamedQuery(name = "Guest.after", query = Guest.SELECT
+        + "WHERE g.timestamp > :timestamp OR (g.timestamp = :timestamp AND g.id > :id) ORDER BY g.timestamp, g.id")
+@NamedQuery(name = "Guest.before", query = Guest.SELECT
+        + "WHERE g.timestamp < :timestamp OR (g.timestamp = :timestamp AND g.id < :id) ORDER BY g.timestamp DESC, g.id DESC")
+@Table(indexes = @Index(name = "guest_timestamp_id", columnList = "timestamp, id"))
 public class Guest implements Serializable {
 
+    // The start of the named queries, which select the guests as GuestEntry projections
+    static final String SELECT = "SELECT new com.example.transactionservlet.GuestEntry(g.id, g.name, g.email, "
+            + "g.homepage, g.comment, g.timestamp, i.id, i.mimeType) FROM Guest g LEFT JOIN g.image i ";
+
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "guest_id")
+    @SequenceGenerator(name = "guest_id", sequenceName = "guest_id_seq", allocationSize = 1000)
     private Long id;
     private String name;
     private String email;
@@ -25,7 +58,7 @@ public class Guest implements Serializable {
     @Temporal(TemporalType.TIMESTAMP)
     private Date timestamp;
 
-    @OneToOne(cascade = CascadeType.ALL)
+    @OneToOne(cascade = CascadeType.ALL, fetch = FetchType.LAZY)
     @JoinColumn(name = "image_id", referencedColumnName = "id")
     private Image image;
 
@@ -84,6 +117,14 @@ public class Guest implements Serializable {
         this.image = image;
     }
 
+    // Makes the guest new again after its insert was rolled back, so that it can be inserted again
+    void resetId() {
+        id = null;
+        if (image != null) {
+            image.setId(0);
+        }
+    }
+
     @Override
     public String toString() {
         return "Guest{" +
@@ -0,0 +1,65 @@
+package com.example.transactionservlet;
+
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+import jakarta.servlet.annotation.WebListener;
+
+/**
+ * Manages the lifecycle of the database of the guest book. When the application is started, it starts creating the
+ * EntityManagerFactory in the background, see {@link DBUtil#start()}, so that the deployment does not wait for the
+ * database and a database that is down does not keep the application from starting. Until the factory is ready,
+ * requests wait for it at most guestbook.db.wait milliseconds (10000 by default), and /ready answers 503.
+ * <p>
+ * If the context parameter guestbook.writeBehind is true, it also starts the write-behind {@link GuestWriter},
+ * kept as the context attribute named after its class. Its queue holds guestbook.writeBehind.capacity guests
+ * (1000 by default), and a post waits guestbook.writeBehind.timeout milliseconds (2000 by default) for room in a
+ * full queue.
+ * <p>
+ * When the application is stopped, the guests still waiting in the writer are written before the EntityManagerFactory
+ * and its connection pool are closed, for at most guestbook.writeBehind.closeTimeout milliseconds (30000 by default);
+ * the guests not written by then are logged and dropped.
+ * <p>Example, in web.xml: &lt;context-param&gt;&lt;param-name&gt;guestbook.writeBehind&lt;/param-name&gt;&lt;param-value&gt;true&lt;/param-value&gt;&lt;/context-param&gt;</p>
+ *
+ * @author Björn Forsberg
+ */
+@WebListener
+public class GuestBookListener implements ServletContextListener {
+
+    /**
+     * Starts creating the EntityManagerFactory, and starts the writer if write-behind is turned on.
+     */
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        ServletContext context = event.getServletContext();
+        DBUtil.setWaitMillis(getParameter(context, "guestbook.db.wait", 10_000));
+        DBUtil.start();
+        if (Boolean.parseBoolean(context.getInitParameter("guestbook.writeBehind"))) {
+            int capacity = getParameter(context, "guestbook.writeBehind.capacity", 1000);
+            int timeout = getParameter(context, "guestbook.writeBehind.timeout", 2000);
+            int closeTimeout = getParameter(context, "guestbook.writeBehind.closeTimeout", 30_000);
+            context.setAttribute(GuestWriter.class.getName(), new GuestWriter(capacity, timeout, closeTimeout));
+        }
+    }
+
+    /**
+     * Stops the writer, waiting until the guests in its queue are written or its close timeout runs out, and closes
+     * the EntityManagerFactory.
+     */
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        ServletContext context = event.getServletContext();
+        GuestWriter writer = (GuestWriter) context.getAttribute(GuestWriter.class.getName());
+        if (writer != null) {
+            context.removeAttribute(GuestWriter.class.getName());
+            writer.close();
+        }
+        DBUtil.stop();
+    }
+
+    // Helper method, an integer context parameter or its default
+    private static int getParameter(ServletContext context, String name, int defaultValue) {
+        String value = context.getInitParameter(name);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+}
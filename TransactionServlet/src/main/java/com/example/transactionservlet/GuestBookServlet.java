@@ -1,48 +1,69 @@
 package com.example.transactionservlet;
 
+import com.example.templateengine.CompiledTemplate;
+import com.example.templateengine.Escaping;
+import com.example.templateengine.FragmentCache;
+import com.example.templateengine.Mixer;
+import com.example.templateengine.TemplateRegistry;
+
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.MultipartConfig;
+import jakarta.servlet.annotation.WebInitParam;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.Part;
-import org.apache.commons.text.StringEscapeUtils;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * Handles the guest book form and manages the entries in the guest book.
  * It receives form data and creates guest entries in the database and retrieves guest
  * entries to display them. It also handles multipart form data for image uploading.
  * <p>
- * The received data is sanitized before processing to avoid cross-site scripting (XSS) attacks.
+ * The received data is stored as it was entered and escaped by the template when the page is rendered,
+ * to avoid cross-site scripting (XSS) attacks.
  * <p>
  * The Mixer class used in this servlet was authored by Pierre Wijkman and Björn Nilsson. See {@link Mixer}.
  * Link to Mixer source code <a href="https://people.dsv.su.se/~pierre/os/mixer/">https://people.dsv.su.se/~pierre/os/mixer/</a>}
  *
  * @author Björn Forsberg
  */
-@WebServlet(name = "guestBookServlet", urlPatterns = "/")
+@WebServlet(name = "guestBookServlet", urlPatterns = "/",
+        initParams = @WebInitParam(name = "pageCacheTtl", value = "10")) // seconds, overridable in web.xml
 @MultipartConfig
 public class GuestBookServlet extends HttpServlet {
 
-    private static String htmlTemplate = null;
+    private static Supplier<CompiledTemplate> htmlTemplate = null;
+    private static final FragmentCache entryCache = new FragmentCache(4L * 1024 * 1024); // rendered entries, at most 4 MiB
+    private static final int PAGE_SIZE = 50;
 
     /**
-     * Initializes the servlet. Loads the HTML template from a file.
+     * Initializes the servlet. Sets how long pages of entries are cached (the init parameter pageCacheTtl, in
+     * seconds), loads the HTML template from a file, compiles it and declares how the values of the entries are
+     * escaped.
      */
     @Override
     public void init() {
+        String pageCacheTtl = getInitParameter("pageCacheTtl");
+        if (pageCacheTtl != null) {
+            GuestDB.setPageCacheTtl(Long.parseLong(pageCacheTtl.trim()) * 1000);
+        }
         if (htmlTemplate == null) {
-            htmlTemplate = Mixer.getContent(new File(getServletContext().getRealPath("index.html")));
+            htmlTemplate = TemplateRegistry.get(new File(getServletContext().getRealPath("index.html")), template -> template
+                    .escape(Escaping.HTML, "---time---", "---name---", "---comment---")
+                    .escape(Escaping.ATTRIBUTE, "---homepage---", "---email---", "---altTag---")
+                    .escape(Escaping.URL, "---imageId---", "---before---", "---after---"));
         }
     }
 
@@ -100,7 +121,8 @@ public class GuestBookServlet extends HttpServlet {
     }
 
     /**
-     * Sanitizes a string input to prevent XSS attacks by escaping HTML entities.
+     * Sanitizes a string input by trimming it. XSS attacks are prevented by the template, which escapes HTML
+     * special characters when the input is rendered.
      *
      * @param input The string to sanitize
      * @return A sanitized version of the input
@@ -109,8 +131,7 @@ public class GuestBookServlet extends HttpServlet {
         if (input == null) {
             return null;
         }
-        input = input.trim();
-        return StringEscapeUtils.escapeHtml4(input);
+        return input.trim();
     }
 
     /**
@@ -164,7 +185,9 @@ public class GuestBookServlet extends HttpServlet {
     }
 
     /**
-     * Inserts a new guest entry into the database and redirects the client to the original URL.
+     * Inserts a new guest entry into the database and redirects the client to the original URL, without a cursor, so
+     * that it is shown the newest page with the new entry. If write-behind is turned on, the guest is posted to the
+     * {@link GuestWriter} instead; if its queue stays full, the post is refused with 503.
      *
      * @param request HttpServletRequest
      * @param response HttpServletResponse
@@ -173,15 +196,23 @@ public class GuestBookServlet extends HttpServlet {
      */
     private void createNewEntry(HttpServletRequest request, HttpServletResponse response, Guest guest) throws IOException {
         try {
-            GuestDB.insert(guest);
-            response.sendRedirect(request.getRequestURI());
+            GuestWriter writer = (GuestWriter) getServletContext().getAttribute(GuestWriter.class.getName());
+            if (writer == null) {
+                GuestDB.insert(guest);
+            } else if (!writer.post(guest)) {
+                response.setHeader("Retry-After", "5");
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many posts, try again later");
+                return;
+            }
+            response.sendRedirect(request.getRequestURI()); // no cursor: the newest page, with the new entry
         } catch (RuntimeException e) {
             response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Internal server error");
         }
     }
 
     /**
-     * Handles the HTTP GET request. Retrieves all guest entries from the database and displays them.
+     * Handles the HTTP GET request. Retrieves a page of guest entries from the database and streams them to the client.
+     * While the database is starting, the page is refused with 503.
      *
      * @param request HttpServletRequest
      * @param response HttpServletResponse
@@ -191,66 +222,155 @@ public class GuestBookServlet extends HttpServlet {
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
         try {
             response.setContentType("text/html;charset=UTF-8");
-            response.getWriter().print(getGuestBookEntriesHTML());
+            getGuestBookEntriesMixer(request.getParameter("after"), request.getParameter("before"))
+                    .writeMix(response.getOutputStream(), response::setContentLength);
+        } catch (IllegalArgumentException e) {
+            response.reset();
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid page");
+        } catch (IllegalStateException e) {
+            if (response.isCommitted() || DBUtil.isReady()) {
+                throw e;
+            }
+            DBUtil.start(); // tries again if connecting failed
+            response.reset();
+            response.setHeader("Retry-After", "5");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "The database is starting, try again later");
         } catch (IOException e) {
-            response.setContentType("text/plain");
-            response.getWriter().println("Error : " + e.getMessage());
+            if (!response.isCommitted()) {
+                response.reset();
+                response.setContentType("text/plain");
+                response.getWriter().println("Error : " + e.getMessage());
+            }
         }
     }
 
     /**
-     * Generates the HTML content for displaying all guest entries.
+     * Retrieves one page of guests and prepares the Mixer for the guest book entries section of the page.
+     * A page is asked for with a cursor: ?after= the last entry of the page before it, or ?before= the first entry of
+     * the page after it. Without a cursor, the newest page is shown. Only the guests of the page are read, through
+     * the (timestamp, id) index, so a page costs the same however many entries the guest book has. For the same
+     * reason the entries are numbered by the ids of their guests rather than counted from the first entry, which
+     * would read every entry before the page.
      *
-     * @return The HTML content for all guest entries
+     * @param after  The cursor of the entry the page starts after, or null.
+     * @param before The cursor of the entry the page ends before, or null.
+     * @return The Mixer that renders the page.
+     * @throws IllegalArgumentException if a cursor is malformed.
      */
-    private String getGuestBookEntriesHTML() {
-        List<Guest> guests = getSortedGuests();
-        return getHTML(guests);
+    private Mixer getGuestBookEntriesMixer(String after, String before) {
+        List<GuestEntry> guests;
+        boolean hasPrevious;
+        boolean hasNext;
+        if (before != null) {
+            long[] cursor = parseCursor(before);
+            guests = GuestDB.pageBefore(new Date(cursor[0]), cursor[1], PAGE_SIZE + 1);
+            hasPrevious = guests.size() > PAGE_SIZE;
+            if (hasPrevious) {
+                guests = guests.subList(1, guests.size());
+            }
+            hasNext = !guests.isEmpty();
+        } else if (after != null) {
+            long[] cursor = parseCursor(after);
+            guests = GuestDB.page(new Date(cursor[0]), cursor[1], PAGE_SIZE + 1);
+            hasNext = guests.size() > PAGE_SIZE;
+            if (hasNext) {
+                guests = guests.subList(0, PAGE_SIZE);
+            }
+            hasPrevious = !guests.isEmpty();
+        } else {
+            guests = GuestDB.lastPage(PAGE_SIZE + 1);
+            hasPrevious = guests.size() > PAGE_SIZE;
+            if (hasPrevious) {
+                guests = guests.subList(1, guests.size());
+            }
+            hasNext = false;
+        }
+        return getMixer(guests, hasPrevious, hasNext);
     }
 
     /**
-     * Retrieves all guest entries from the database and sorts them by timestamp.
+     * Adds the actual guest book entries for the placeholders in the HTML template to a Mixer, and the links to
+     * the pages before and after them.
+     * Entries that were rendered before are taken from the cache of rendered entries as they are.
      *
-     * @return A sorted list of all guest entries
+     * @param guests      The guests of the page, in ascending order of their timestamps.
+     * @param hasPrevious Whether there are entries before the page.
+     * @param hasNext     Whether there are entries after the page.
+     * @return The Mixer holding the guest book entries.
      */
-    private List<Guest> getSortedGuests() {
-        List<Guest> guests = GuestDB.getAll();
-        guests.sort(Comparator.comparing(Guest::getTimestamp));
-        return guests;
+    private Mixer getMixer(List<GuestEntry> guests, boolean hasPrevious, boolean hasNext) {
+        Mixer mixer = new Mixer(htmlTemplate.get());
+
+        if (guests.isEmpty()) {
+            mixer.removeContext("<!--===entries===-->");
+        } else {
+            for (GuestEntry guest : guests) {
+                // An entry never changes once posted, so its rendering is kept under a single version
+                mixer.addRow("<!--===entries===-->", entryCache, guest.getId(), 0, () -> getRow(guest));
+            }
+        }
+        if (hasPrevious) {
+            mixer.add("<!--===previous===-->", "---before---", cursorOf(guests.get(0)));
+        } else {
+            mixer.removeContext("<!--===previous===-->");
+        }
+        if (hasNext) {
+            mixer.add("<!--===next===-->", "---after---", cursorOf(guests.get(guests.size() - 1)));
+        } else {
+            mixer.removeContext("<!--===next===-->");
+        }
+        return mixer;
     }
 
     /**
-     * Uses the Mixer to generate the HTML content for a list of guests.
+     * Makes the cursor of an entry: its timestamp and its id.
      *
-     * @param guests The list of guests
-     * @return The HTML content for the list of guests
+     * @param guest The guest of the entry.
+     * @return The cursor, as it is put in the URL.
      */
-    private String getHTML(List<Guest> guests) {
-        Mixer mixer = new Mixer(htmlTemplate);
-        int postCount = 1;
-        if (guests.isEmpty()) {
-            mixer.removeContext("<!--===entries===-->");
-            System.out.println("GETHTML IF CLAUSE NO GUESTS");
-        } else {
-            for (Guest guest : guests) {
-                mixer.add("<!--===entries===-->", "---no---", Integer.toString(postCount)); // use counter instead of guest ID
-                mixer.add("<!--===entries===-->", "---time---", guest.getTimestamp().toString());
-                mixer.add("<!--===entries===-->", "---homepage---", guest.getHomepage());
-                mixer.add("<!--===entries===-->", "---name---", guest.getName());
-                mixer.add("<!--===entries===-->", "---email---", guest.getEmail());
-                mixer.add("<!--===entries===-->", "---comment---", guest.getComment());
+    private static String cursorOf(GuestEntry guest) {
+        return guest.getTimestamp().getTime() + "." + guest.getId();
+    }
 
-                if (guest.getImage() != null) {
-                    mixer.add("<!--===entries===-->", "---imageId---", Long.toString(guest.getImage().getId()));
-                    mixer.add("<!--===entries===-->", "---altTag---", "Guest's image");
-                } else {
-                    mixer.add("<!--===entries===-->", "---imageId---", "");
-                    mixer.add("<!--===entries===-->", "---altTag---", "");
-                }
-                postCount++;
-            }
+    /**
+     * Parses a cursor made by {@link #cursorOf(GuestEntry)}. Cursors used to end with the number of the entry as well; it
+     * is ignored, so that links made before still work.
+     *
+     * @param cursor The cursor from the URL.
+     * @return The timestamp in milliseconds and the id of the entry.
+     * @throws IllegalArgumentException if the cursor is malformed.
+     */
+    private static long[] parseCursor(String cursor) {
+        String[] parts = cursor.split("\\.");
+        if (parts.length != 2 && parts.length != 3) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
         }
+        return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+    }
 
-        return mixer.getMix();
+    /**
+     * Maps the placeholders of one guest book entry to its values. Only called for entries that are not
+     * in the cache of rendered entries.
+     *
+     * @param guest The guest of the entry.
+     * @return The placeholders mapped to the values of the entry.
+     */
+    private Map<String, String> getRow(GuestEntry guest) {
+        Map<String, String> row = new HashMap<>();
+        row.put("---no---", Long.toString(guest.getId())); // the id, counting the entries before would read them all
+        row.put("---time---", guest.getTimestamp().toString());
+        row.put("---homepage---", guest.getHomepage());
+        row.put("---name---", guest.getName());
+        row.put("---email---", guest.getEmail());
+        row.put("---comment---", guest.getComment());
+
+        if (guest.getImageId() != null) {
+            row.put("---imageId---", Long.toString(guest.getImageId()));
+            row.put("---altTag---", "Guest's image");
+        } else {
+            row.put("---imageId---", "");
+            row.put("---altTag---", "");
+        }
+        return row;
     }
 }
@@ -1,13 +1,16 @@
 package com.example.transactionservlet;
 
 import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
 import jakarta.persistence.EntityTransaction;
 import jakarta.persistence.TypedQuery;
-import jakarta.persistence.criteria.CriteriaBuilder;
-import jakarta.persistence.criteria.CriteriaQuery;
-import jakarta.persistence.criteria.Root;
+import org.hibernate.jpa.HibernateHints;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.stream.Stream;
 /**
  * Provides a set of static methods for database operations related to the Guest entity and
  * uses the EntityManager from the {@link DBUtil} class to interact with the database.
@@ -16,6 +19,11 @@ import java.util.List;
  */
 public class GuestDB {
 
+    // Rows fetched from the database at a time by streamAll(), through a server-side cursor on MySQL, see DBUtil
+    private static final int STREAM_FETCH_SIZE = 100;
+    // Pages read by page() and pageBefore(), kept for ten seconds unless GuestBookServlet configures otherwise
+    private static final GuestPageCache pageCache = new GuestPageCache(1000, 10_000);
+
     private GuestDB() {
         throw new AssertionError("Cannot be instantiated");
     }
@@ -33,6 +41,7 @@ public class GuestDB {
             transaction.begin();
             em.persist(guest);
             transaction.commit();
+            pageCache.inserted(guest);
         } catch (Exception e) {
             if (transaction.isActive()) {
                 transaction.rollback();
@@ -44,24 +53,159 @@ public class GuestDB {
     }
 
     /**
-     * Retrieves all guests from the database and sorts them in ascending order of their timestamp.
+     * Inserts guests into the database in one transaction, sent as JDBC batches of {@link DBUtil#JDBC_BATCH_SIZE}
+     * inserts. Either all the guests are inserted or, if an exception occurs, none of them; the guests are then
+     * left as they were, so that they can be inserted again.
      *
-     * @return A List of all guests from the database.
-     * @throws RuntimeException if any error occurs during the transaction.
+     * @param guests The guests to be inserted.
+     * @throws RuntimeException if there is an error while inserting the guests.
      */
-    public static List<Guest> getAll() {
-        try (EntityManager em = DBUtil.getEMFInstance().createEntityManager()) {
-            CriteriaBuilder cb = em.getCriteriaBuilder();
-            CriteriaQuery<Guest> cq = cb.createQuery(Guest.class);
-            Root<Guest> rootEntry = cq.from(Guest.class);
-            CriteriaQuery<Guest> all = cq.select(rootEntry);
-            all.orderBy(cb.asc(rootEntry.get("timestamp")));
-            TypedQuery<Guest> allQuery = em.createQuery(all);
-            return allQuery.getResultList();
+    public static void insertAll(List<Guest> guests) {
+        EntityManager em = DBUtil.getEMFInstance().createEntityManager();
+        EntityTransaction transaction = em.getTransaction();
+        try {
+            transaction.begin();
+            for (Guest guest : guests) {
+                em.persist(guest);
+            }
+            transaction.commit();
+            for (Guest guest : guests) {
+                pageCache.inserted(guest);
+            }
         } catch (Exception e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            for (Guest guest : guests) {
+                guest.resetId();
+            }
+            throw new RuntimeException("Error while inserting guests", e);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Streams all guest book entries from the database in ascending order of their timestamps, and of their ids for
+     * equal timestamps. The rows are read forward-only through a database cursor, a fetch of rows at a time, and
+     * projected to entries that the persistence context does not keep, so the entries are never held in memory all at
+     * once. The order is the one of the query; the stream must not be sorted again.
+     * <p>
+     * The stream holds a database connection until it is closed, so it must be used in a try-with-resources statement.
+     * It is what {@link ExportServlet} writes out; the guest book page reads pages instead, see {@link #page}.
+     *
+     * @return A Stream of all entries, sorted in ascending order by their timestamps.
+     * @throws RuntimeException if any error occurs while retrieving the guests.
+     */
+    public static Stream<GuestEntry> streamAll() {
+        EntityManager em = DBUtil.getEMFInstance().createEntityManager();
+        try {
+            TypedQuery<GuestEntry> allQuery = em.createNamedQuery("Guest.first", GuestEntry.class)
+                    .setHint(HibernateHints.HINT_FETCH_SIZE, STREAM_FETCH_SIZE);
+            return allQuery.getResultStream().onClose(em::close);
+        } catch (Exception e) {
+            em.close();
             throw new RuntimeException("Error while retrieving all guests", e);
         }
     }
 
+    /**
+     * Retrieves a page of guest book entries in ascending order of their timestamps, starting right after a given guest.
+     * Guests with the same timestamp are ordered by their ids, so the pair of timestamp and id is a cursor that pages
+     * through the guests without skipping or repeating any. The query reads the index on (timestamp, id) from the
+     * cursor on, so a page costs the same however many guests come before it. Pages are served from a
+     * {@link GuestPageCache} while they are fresh, so most requests do not touch the database, and otherwise from the
+     * query cache of Hibernate until a guest is inserted. The entries are projected from the guests and the ids and
+     * MIME types of their images; neither the Image entities nor the image data are loaded.
+     *
+     * @param afterTimestamp The timestamp of the guest the page starts after, or null for the first page.
+     * @param afterId        The id of the guest the page starts after; ignored for the first page.
+     * @param limit          The maximum number of guests in the page.
+     * @return An unmodifiable List of at most limit entries, sorted in ascending order by their timestamps.
+     * @throws RuntimeException if there is an error while retrieving the guests.
+     */
+    public static List<GuestEntry> page(Date afterTimestamp, Long afterId, int limit) {
+        return pageCache.get(afterTimestamp, afterId, limit, false,
+                () -> getPage(DBUtil.getEMFInstance(), afterTimestamp, afterId, limit, false));
+    }
+
+    /**
+     * Retrieves the page of guest book entries that ends right before a given guest, in ascending order of their timestamps.
+     * This is the page before one returned by {@link #page(Date, Long, int)}, found through the same index.
+     *
+     * @param beforeTimestamp The timestamp of the guest the page ends before.
+     * @param beforeId        The id of the guest the page ends before.
+     * @param limit           The maximum number of guests in the page.
+     * @return A List of at most limit entries, sorted in ascending order by their timestamps.
+     * @throws RuntimeException if there is an error while retrieving the guests.
+     */
+    public static List<GuestEntry> pageBefore(Date beforeTimestamp, Long beforeId, int limit) {
+        List<GuestEntry> entries = new ArrayList<>(
+                pageCache.get(beforeTimestamp, beforeId, limit, true,
+                        () -> getPage(DBUtil.getEMFInstance(), beforeTimestamp, beforeId, limit, true)));
+        Collections.reverse(entries);
+        return entries;
+    }
+
+    /**
+     * Retrieves the newest page of guest book entries, in ascending order of their timestamps: the page the guest book opens on,
+     * where a guest that was just posted shows. It is read backwards from the end of the index on (timestamp, id), so
+     * it costs the same however many guests there are, and is cached like the other pages.
+     *
+     * @param limit The maximum number of entries in the page.
+     * @return A List of at most limit entries, sorted in ascending order by their timestamps.
+     * @throws RuntimeException if there is an error while retrieving the guests.
+     */
+    public static List<GuestEntry> lastPage(int limit) {
+        List<GuestEntry> entries = new ArrayList<>(
+                pageCache.get(null, null, limit, true, () -> getPage(DBUtil.getEMFInstance(), null, null, limit, true)));
+        Collections.reverse(entries);
+        return entries;
+    }
+
+    /**
+     * Sets how long pages read by {@link #page(Date, Long, int)}, {@link #pageBefore(Date, Long, int)} and
+     * {@link #lastPage(int)} are served from the cache. Inserting a guest evicts the pages it belongs in at once; the time to live bounds how long
+     * guests inserted by other nodes stay unseen.
+     *
+     * @param ttlMillis The time to live in milliseconds; 0 turns the cache off.
+     */
+    public static void setPageCacheTtl(long ttlMillis) {
+        pageCache.setTtlMillis(ttlMillis);
+    }
 
+    /**
+     * Runs the page queries from either end and once in each direction from a cursor with the given factory, bypassing the cache, so that they are
+     * compiled and prepared on a connection before the first request. Called by {@link DBUtil} while the factory
+     * is being created, before it is handed out.
+     *
+     * @param emf The EntityManagerFactory being created.
+     * @throws RuntimeException if there is an error while running the queries.
+     */
+    static void warmUp(EntityManagerFactory emf) {
+        getPage(emf, null, null, 1, false);
+        getPage(emf, null, null, 1, true);
+        getPage(emf, new Date(0), 0L, 1, false);
+        getPage(emf, new Date(0), 0L, 1, true);
+    }
+
+    // Helper method, the entries following a cursor in the given direction
+    private static List<GuestEntry> getPage(EntityManagerFactory emf, Date cursorTimestamp, Long cursorId, int limit,
+                                            boolean backwards) {
+        try (EntityManager em = emf.createEntityManager()) {
+            String name = cursorTimestamp == null
+                    ? (backwards ? "Guest.last" : "Guest.first")
+                    : (backwards ? "Guest.before" : "Guest.after");
+            TypedQuery<GuestEntry> pageQuery = em.createNamedQuery(name, GuestEntry.class)
+                    .setMaxResults(limit)
+                    .setHint(HibernateHints.HINT_CACHEABLE, true)
+                    .setHint(HibernateHints.HINT_CACHE_REGION, DBUtil.PAGES_REGION);
+            if (cursorTimestamp != null) {
+                pageQuery.setParameter("timestamp", cursorTimestamp).setParameter("id", cursorId);
+            }
+            return pageQuery.getResultList();
+        } catch (Exception e) {
+            throw new RuntimeException("Error while retrieving a page of guests", e);
+        }
+    }
 }
@@ -0,0 +1,92 @@
+package com.example.transactionservlet;
+
+import java.util.Date;
+
+/**
+ * One entry of the guest book as it is listed: the fields of a {@link Guest} and the id and MIME type of its image,
+ * but never the image data. Entries are read with a projection query by {@link GuestDB}, so listing the guest book
+ * neither loads the {@link Image} entities nor their bytes; the image itself is only loaded by {@link ImageServlet}.
+ *
+ * @author Björn Forsberg
+ */
+public class GuestEntry {
+
+    private final Long id;
+    private final String name;
+    private final String email;
+    private final String homepage;
+    private final String comment;
+    private final Date timestamp;
+    private final Long imageId;
+    private final String imageMimeType;
+
+    /**
+     * Constructs an entry, as the projection query of {@link GuestDB} does.
+     *
+     * @param id the id of the guest
+     * @param name the name of the guest
+     * @param email the email of the guest
+     * @param homepage the homepage of the guest
+     * @param comment the comment left by the guest
+     * @param timestamp the time of the guest's visit
+     * @param imageId the id of the guest's image, or null if the guest has not uploaded an image
+     * @param imageMimeType the MIME type of the guest's image, or null if the guest has not uploaded an image
+     */
+    public GuestEntry(Long id, String name, String email, String homepage, String comment, Date timestamp,
+                      Long imageId, String imageMimeType) {
+        this.id = id;
+        this.name = name;
+        this.email = email;
+        this.homepage = homepage;
+        this.comment = comment;
+        this.timestamp = timestamp;
+        this.imageId = imageId;
+        this.imageMimeType = imageMimeType;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getHomepage() {
+        return homepage;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    public Long getImageId() {
+        return imageId;
+    }
+
+    public String getImageMimeType() {
+        return imageMimeType;
+    }
+
+    @Override
+    public String toString() {
+        return "GuestEntry{" +
+                "id=" + id +
+                ", name='" + name + '\'' +
+                ", email='" + email + '\'' +
+                ", homepage='" + homepage + '\'' +
+                ", comment='" + comment + '\'' +
+                ", timestamp=" + timestamp +
+                ", imageId=" + imageId +
+                ", imageMimeType='" + imageMimeType + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.transactionservlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind writer of guests. Posted guests are put in a bounded queue and written by a background thread, which
+ * takes all the guests waiting in the queue, at most {@link DBUtil#JDBC_BATCH_SIZE} at a time, and inserts them with
+ * {@link GuestDB#insertAll(List)} in one transaction. A burst of posts thus costs one commit per batch instead of
+ * one per guest.
+ * <p>
+ * When the queue is full, posting waits for room until a timeout runs out and then fails, so that a burst the
+ * database cannot keep up with is pushed back to the clients instead of growing the queue. If a batch cannot be
+ * written, its guests are written one by one, so that one bad guest does not lose the others. While the database
+ * is not ready, the writer waits for it.
+ * <p>
+ * A posted guest is not seen until its batch is written. {@link #close()} stops accepting guests and returns when
+ * all the accepted guests are written; it is called by {@link GuestBookListener} when the application is stopped.
+ * So that a database that is down cannot hold up the stopping, closing has a deadline: the guests not written by
+ * then are logged and dropped.
+ *
+ * @author Björn Forsberg
+ */
+public final class GuestWriter implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(GuestWriter.class.getName());
+
+    /**
+     * Writes the guests to the database with {@link GuestDB}, connecting to it with {@link DBUtil}.
+     */
+    private static final Sink DATABASE = new Sink() {
+        @Override
+        public boolean isReady() {
+            if (DBUtil.isReady()) {
+                return true;
+            }
+            DBUtil.start();
+            return false;
+        }
+
+        @Override
+        public void insertAll(List<Guest> guests) {
+            GuestDB.insertAll(guests);
+        }
+
+        @Override
+        public void insert(Guest guest) {
+            GuestDB.insert(guest);
+        }
+    };
+
+    private final Sink sink;
+    private final BlockingQueue<Guest> queue;
+    private final long timeoutMillis;
+    private final long closeTimeoutMillis;
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private final Thread thread;
+    private volatile boolean closed = false;
+    private volatile long deadline;
+
+    /**
+     * Creates a writer and starts its background thread.
+     *
+     * @param capacity           the maximum number of guests waiting to be written
+     * @param timeoutMillis      how long posting a guest waits for room in a full queue, in milliseconds
+     * @param closeTimeoutMillis how long closing waits for the accepted guests to be written, in milliseconds
+     */
+    public GuestWriter(int capacity, long timeoutMillis, long closeTimeoutMillis) {
+        this(DATABASE, capacity, timeoutMillis, closeTimeoutMillis);
+    }
+
+    /**
+     * Creates a writer that writes to a sink and starts its background thread.
+     *
+     * @param sink               where the guests are written
+     * @param capacity           the maximum number of guests waiting to be written
+     * @param timeoutMillis      how long posting a guest waits for room in a full queue, in milliseconds
+     * @param closeTimeoutMillis how long closing waits for the accepted guests to be written, in milliseconds
+     */
+    GuestWriter(Sink sink, int capacity, long timeoutMillis, long closeTimeoutMillis) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.sink = sink;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.timeoutMillis = timeoutMillis;
+        this.closeTimeoutMillis = closeTimeoutMillis;
+        this.thread = new Thread(this::run, "guest-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Posts a guest to be written, waiting for room in the queue if it is full.
+     *
+     * @param guest the guest
+     * @return true if the guest will be written, false if the queue stayed full or the writer is closed
+     */
+    public boolean post(Guest guest) {
+        closeLock.readLock().lock();
+        try {
+            return !closed && queue.offer(guest, timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of guests waiting to be written.
+     *
+     * @return the number of guests in the queue
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * Stops accepting guests and waits until all the accepted guests are written, or the close timeout runs out;
+     * the guests not written by then are logged and dropped.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            deadline = System.currentTimeMillis() + closeTimeoutMillis;
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        boolean interrupted = false;
+        long remaining;
+        while (thread.isAlive() && (remaining = deadline - System.currentTimeMillis()) > 0) {
+            try {
+                thread.join(remaining);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (thread.isAlive()) {
+            thread.interrupt(); // stops a wait for the database
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            if (thread.isAlive()) {
+                LOGGER.warning("The guest writer did not stop within its close timeout");
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // The background thread, writes batches until the writer is closed and the queue is empty, or the close deadline
+    // has passed
+    private void run() {
+        List<Guest> batch = new ArrayList<>(DBUtil.JDBC_BATCH_SIZE);
+        while ((!closed || !queue.isEmpty()) && !expired()) {
+            try {
+                Guest first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                // only closing stops the writer, so that no accepted guest is lost
+                continue;
+            }
+            queue.drainTo(batch, DBUtil.JDBC_BATCH_SIZE - 1);
+            awaitDatabase();
+            write(batch);
+            batch.clear();
+        }
+        List<Guest> dropped = new ArrayList<>();
+        queue.drainTo(dropped);
+        if (!dropped.isEmpty()) {
+            LOGGER.severe("Dropped " + dropped.size() + " guests not written within the close timeout: " + dropped);
+        }
+    }
+
+    // Helper method, whether the writer is closed and its close deadline has passed
+    private boolean expired() {
+        return closed && deadline - System.currentTimeMillis() <= 0;
+    }
+
+    // Helper method, waits while the database is being connected to, so that the guests posted meanwhile are not
+    // lost; once the writer is closed, the batch is tried anyway
+    private void awaitDatabase() {
+        while (!closed && !sink.isReady()) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                // only closing stops the writer
+            }
+        }
+    }
+
+    // Helper method, writes a batch, or its guests one by one if the batch fails, until the close deadline has passed
+    private void write(List<Guest> batch) {
+        try {
+            sink.insertAll(batch);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not write a batch of " + batch.size() + " guests, writing them one by one", e);
+            for (int i = 0; i < batch.size(); i++) {
+                Guest guest = batch.get(i);
+                if (expired()) {
+                    List<Guest> dropped = batch.subList(i, batch.size());
+                    LOGGER.severe("Dropped " + dropped.size() + " guests not written within the close timeout: " + dropped);
+                    return;
+                }
+                try {
+                    sink.insert(guest);
+                } catch (RuntimeException e2) {
+                    LOGGER.log(Level.SEVERE, "Could not write " + guest, e2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Where a writer writes its guests.
+     */
+    interface Sink {
+        /**
+         * Returns whether guests can be written, starting to connect to the database if they cannot.
+         *
+         * @return true if the database is ready
+         */
+        boolean isReady();
+
+        /**
+         * Writes guests in one transaction.
+         *
+         * @param guests the guests
+         */
+        void insertAll(List<Guest> guests);
+
+        /**
+         * Writes one guest.
+         *
+         * @param guest the guest
+         */
+        void insert(Guest guest);
+    }
+}
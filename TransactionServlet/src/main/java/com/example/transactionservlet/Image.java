@@ -1,23 +1,42 @@
 package com.example.transactionservlet;
 
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Lob;
 import jakarta.persistence.OneToOne;
 import jakarta.persistence.Column;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Immutable;
 
 /**
  * Represents an image associated with a Guest entity. It includes the image data and the MIME type of the image.
- * The guest field is the Guest entity that the Image is associated with.
+ * The guest field is the Guest entity that the Image is associated with. As the inverse side of a one-to-one, it is
+ * fetched along with the image, a Guest row but never image data; the guest book lists images through
+ * {@link GuestEntry} and does not load Image entities at all.
+ * <p>
+ * Ids are drawn from the sequence image_id_seq in blocks of 1000, as those of {@link Guest}; on an existing database
+ * it is started with:
+ * <pre>
+ * CREATE TABLE image_id_seq (next_val BIGINT);
+ * INSERT INTO image_id_seq SELECT COALESCE(MAX(id), 0) + 1001 FROM Image;
+ * DROP TABLE Image_SEQ;
+ * </pre>
  *
  * @author Björn Forsberg
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_ONLY, region = DBUtil.IMAGE_REGION)
+@Immutable
 public class Image {
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "image_id")
+    @SequenceGenerator(name = "image_id", sequenceName = "image_id_seq", allocationSize = 1000)
     private long id;
 
     @Lob
@@ -15,7 +15,8 @@ public class ImageDB {
     }
 
     /**
-     * Retrieves an Image entity from the database with the given ID.
+     * Retrieves an Image entity from the database with the given ID. Images never change, so they are kept in the
+     * second-level cache, and popular images are served from memory.
      *
      * @param id the ID of the image to retrieve
      * @return the Image entity with the given ID or null if no such entity exists
@@ -33,7 +33,6 @@ public class ImageServlet extends HttpServlet {
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
 
         Long id = Long.valueOf(request.getParameter("id"));
-        System.out.println(ImageDB.getById(id));
         Image image = ImageDB.getById(id);
         if (image == null) {
             response.sendError(HttpServletResponse.SC_NOT_FOUND, "Image not found");
@@ -0,0 +1,83 @@
+package com.example.transactionservlet;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the lines {@link ExportServlet} writes for an entry: CSV quoting, the defusing of spreadsheet formulas and
+ * the escaping of JSON strings.
+ *
+ * @author Björn Forsberg
+ */
+class ExportServletTest {
+
+    @Test
+    void csvPlainValues() throws IOException {
+        GuestEntry entry = new GuestEntry(7L, "Åsa Öberg", "asa@example.com", "https://example.com/~asa?a=1",
+                "Hej 😀", new Date(1_000), 3L, "image/png");
+        assertEquals("7,1970-01-01T00:00:01Z,Åsa Öberg,asa@example.com,https://example.com/~asa?a=1,Hej 😀,3,"
+                        + "image/png\r\n",
+                csv(ExportServlet.valuesOf(entry)));
+        entry = new GuestEntry(8L, "", "", "", "", new Date(0), null, null);
+        assertEquals("8,1970-01-01T00:00:00Z,,,,,,\r\n", csv(ExportServlet.valuesOf(entry)),
+                "empty values and nulls are empty fields");
+    }
+
+    @Test
+    void csvQuoting() throws IOException {
+        assertEquals("\"a,b\",\"say \"\"hi\"\"\",\"\"\"\",\"line\nbreak\",\"cr\rlf\"\r\n",
+                csv(new Object[]{"a,b", "say \"hi\"", "\"", "line\nbreak", "cr\rlf"}));
+        assertEquals("a;b,it's,tab\tinside\r\n", csv(new Object[]{"a;b", "it's", "tab\tinside"}));
+    }
+
+    @Test
+    void csvFormulas() throws IOException {
+        assertEquals("\"'=HYPERLINK(\"\"http://evil.example/\"\",\"\"x\"\")\",\"'+1\",\"'-2\",\"'@SUM(A1)\","
+                        + "\"'\tcmd\",\"'\rcmd\"\r\n",
+                csv(new Object[]{"=HYPERLINK(\"http://evil.example/\",\"x\")", "+1", "-2", "@SUM(A1)", "\tcmd",
+                        "\rcmd"}));
+        assertEquals("a=1,1+1,x@example.com,\"'-\"\r\n",
+                csv(new Object[]{"a=1", "1+1", "x@example.com", "-"}), "only a leading character starts a formula");
+    }
+
+    @Test
+    void jsonEntries() throws IOException {
+        GuestEntry entry = new GuestEntry(7L, "Åsa \"the\" guest", "=1+1", "https://example.com/a\\b",
+                "line\nbreak\r\ttab 😀", new Date(1_000), 3L, "image/png");
+        assertEquals("{\"id\":7,\"timestamp\":\"1970-01-01T00:00:01Z\",\"name\":\"Åsa \\\"the\\\" guest\","
+                        + "\"email\":\"=1+1\",\"homepage\":\"https://example.com/a\\\\b\","
+                        + "\"comment\":\"line\\nbreak\\r\\ttab 😀\",\"image_id\":3,\"image_mime_type\":\"image/png\"}\n",
+                json(ExportServlet.valuesOf(entry)));
+        entry = new GuestEntry(8L, "", "", "", "</script>", new Date(0), null, null);
+        assertEquals("{\"id\":8,\"timestamp\":\"1970-01-01T00:00:00Z\",\"name\":\"\",\"email\":\"\",\"homepage\":\"\","
+                        + "\"comment\":\"</script>\",\"image_id\":null,\"image_mime_type\":null}\n",
+                json(ExportServlet.valuesOf(entry)));
+    }
+
+    @Test
+    void jsonControlCharacters() throws IOException {
+        GuestEntry entry = new GuestEntry(9L, "\u0000\u0001\u001f \u007f", "\b\f", "", "", new Date(0), null, null);
+        String line = json(ExportServlet.valuesOf(entry));
+        assertEquals("\"name\":\"\\u0000\\u0001\\u001f \u007f\",\"email\":\"\\u0008\\u000c\"",
+                line.substring(line.indexOf("\"name\""), line.indexOf(",\"homepage\"")));
+    }
+
+    // Helper method, the CSV line of values
+    private static String csv(Object[] values) throws IOException {
+        StringWriter writer = new StringWriter();
+        ExportServlet.writeCsv(writer, values);
+        return writer.toString();
+    }
+
+    // Helper method, the JSON line of values
+    private static String json(Object[] values) throws IOException {
+        StringWriter writer = new StringWriter();
+        ExportServlet.writeJson(writer, values);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.transactionservlet;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that the {@link GuestPageCache} serves a page until its time to live runs out, does not cache a page read
+ * while a guest was inserted, and that an inserted guest evicts exactly the pages it belongs in.
+ *
+ * @author Björn Forsberg
+ */
+class GuestPageCacheTest {
+
+    private static final int LIMIT = 3;
+
+    @Test
+    void servesAPageUntilItExpires() throws InterruptedException {
+        GuestPageCache cache = new GuestPageCache(10, 200);
+        Query query = new Query(entries(1, 2, 3));
+        List<GuestEntry> page = cache.get(null, null, LIMIT, false, query);
+        assertSame(page, cache.get(null, null, LIMIT, false, query));
+        assertEquals(1, query.reads.get());
+        assertThrows(UnsupportedOperationException.class, () -> page.add(entry(4)), "a cached page is unmodifiable");
+
+        Thread.sleep(250);
+        cache.get(null, null, LIMIT, false, query);
+        assertEquals(2, query.reads.get(), "an expired page is read again");
+    }
+
+    @Test
+    void aTimeToLiveOfZeroTurnsTheCacheOff() {
+        GuestPageCache cache = new GuestPageCache(10, 60_000);
+        Query query = new Query(entries(1, 2, 3));
+        cache.get(null, null, LIMIT, false, query);
+        cache.setTtlMillis(0);
+        cache.get(null, null, LIMIT, false, query);
+        cache.get(null, null, LIMIT, false, query);
+        assertEquals(3, query.reads.get());
+
+        cache.setTtlMillis(60_000);
+        cache.get(null, null, LIMIT, false, query);
+        assertEquals(4, query.reads.get(), "the pages cached before were cleared");
+        assertThrows(IllegalArgumentException.class, () -> cache.setTtlMillis(-1));
+    }
+
+    @Test
+    void pagesAreKeyedByCursorLimitAndDirection() {
+        GuestPageCache cache = new GuestPageCache(10, 60_000);
+        Query query = new Query(entries(4, 5, 6));
+        Date cursor = new Date(3);
+        cache.get(cursor, 3L, LIMIT, false, query);
+        cache.get(new Date(3), 3L, LIMIT, false, query);
+        assertEquals(1, query.reads.get(), "an equal cursor is the same page");
+        cache.get(cursor, 2L, LIMIT, false, query);
+        cache.get(cursor, 3L, LIMIT + 1, false, query);
+        cache.get(cursor, 3L, LIMIT, true, query);
+        assertEquals(4, query.reads.get());
+
+        cache.get(null, 1L, LIMIT, true, query);
+        cache.get(null, 2L, LIMIT, true, query);
+        assertEquals(5, query.reads.get(), "the id of the cursor of the last page is ignored");
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedPage() {
+        GuestPageCache cache = new GuestPageCache(2, 60_000);
+        Query query = new Query(entries(1, 2, 3));
+        cache.get(new Date(1), 1L, LIMIT, false, query);
+        cache.get(new Date(2), 2L, LIMIT, false, query);
+        cache.get(new Date(1), 1L, LIMIT, false, query);
+        cache.get(new Date(3), 3L, LIMIT, false, query);
+        assertEquals(3, query.reads.get());
+        cache.get(new Date(1), 1L, LIMIT, false, query);
+        assertEquals(3, query.reads.get(), "the page used last is kept");
+        cache.get(new Date(2), 2L, LIMIT, false, query);
+        assertEquals(4, query.reads.get(), "the page used least recently is evicted");
+    }
+
+    @Test
+    void aPageReadWhileAGuestIsInsertedIsNotCached() {
+        GuestPageCache cache = new GuestPageCache(10, 60_000);
+        AtomicInteger reads = new AtomicInteger();
+        Supplier<List<GuestEntry>> query = () -> {
+            if (reads.incrementAndGet() == 1) {
+                cache.inserted(guest(100, 100));
+            }
+            return entries(1, 2, 3);
+        };
+        assertEquals(entries(1, 2, 3).size(), cache.get(new Date(0), 0L, LIMIT, false, query).size());
+        cache.get(new Date(0), 0L, LIMIT, false, query);
+        cache.get(new Date(0), 0L, LIMIT, false, query);
+        assertEquals(2, reads.get(), "the page is cached from the second read on");
+
+        cache.clear();
+        cache.get(new Date(0), 0L, LIMIT, false, query);
+        assertEquals(3, reads.get(), "clearing removes every page");
+    }
+
+    @Test
+    void anInsertedGuestEvictsThePagesItBelongsIn() {
+        GuestPageCache cache = new GuestPageCache(20, 60_000);
+        Query first = new Query(entries(1, 2, 3));
+        Query last = new Query(entries(9, 8, 7));
+        Query fullAfter = new Query(entries(4, 5, 6));
+        Query partialAfter = new Query(entries(8, 9));
+        Query before = new Query(entries(6, 5, 4));
+        Query[] queries = {first, last, fullAfter, partialAfter, before};
+        Runnable read = () -> {
+            cache.get(null, null, LIMIT, false, first);
+            cache.get(null, null, LIMIT, true, last);
+            cache.get(new Date(3), 3L, LIMIT, false, fullAfter);
+            cache.get(new Date(7), 7L, LIMIT, false, partialAfter);
+            cache.get(new Date(7), 7L, LIMIT, true, before);
+        };
+        read.run();
+
+        // A guest posted now belongs after every guest: in the last page, and in the page that did not fill up
+        cache.inserted(guest(10, 10));
+        read.run();
+        assertReads(queries, 1, 2, 1, 2, 1);
+
+        // A guest within the range of the page after the cursor 3, and of the page before the cursor 7
+        cache.inserted(guest(5, 20));
+        read.run();
+        assertReads(queries, 1, 2, 2, 2, 2);
+
+        // A guest within the range of the first page only
+        cache.inserted(guest(2, 30));
+        read.run();
+        assertReads(queries, 2, 2, 2, 2, 2);
+
+        // A guest with the same timestamp as the cursor 7, ordered after it by its id
+        cache.inserted(guest(7, 40));
+        read.run();
+        assertReads(queries, 2, 3, 2, 3, 2);
+    }
+
+    // Helper method, checks how many times each query has read its page
+    private static void assertReads(Query[] queries, int... reads) {
+        int[] actual = new int[queries.length];
+        for (int i = 0; i < queries.length; i++) {
+            actual[i] = queries[i].reads.get();
+        }
+        assertEquals(Arrays.toString(reads), Arrays.toString(actual));
+    }
+
+    // Helper method, entries whose ids and timestamps are the given numbers, in the given order
+    private static List<GuestEntry> entries(long... ids) {
+        List<GuestEntry> entries = new ArrayList<>();
+        for (long id : ids) {
+            entries.add(entry(id));
+        }
+        return entries;
+    }
+
+    private static GuestEntry entry(long id) {
+        return new GuestEntry(id, "Guest " + id, "guest@example.com", "", "", new Date(id), null, null);
+    }
+
+    // Helper method, an inserted guest, its id set as the database would
+    private static Guest guest(long timestamp, long id) {
+        Guest guest = new Guest("Guest " + id, "guest@example.com", "", "", new Date(timestamp));
+        try {
+            Field field = Guest.class.getDeclaredField("id");
+            field.setAccessible(true);
+            field.set(guest, id);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+        return guest;
+    }
+
+    /**
+     * A query that counts how many times it has read its page.
+     */
+    private static final class Query implements Supplier<List<GuestEntry>> {
+        final AtomicInteger reads = new AtomicInteger();
+        private final List<GuestEntry> page;
+
+        Query(List<GuestEntry> page) {
+            this.page = page;
+        }
+
+        @Override
+        public List<GuestEntry> get() {
+            reads.incrementAndGet();
+            return new ArrayList<>(page);
+        }
+    }
+}
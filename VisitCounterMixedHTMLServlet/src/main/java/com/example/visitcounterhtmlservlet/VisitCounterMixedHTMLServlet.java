@@ -1,8 +1,13 @@
 package com.example.visitcounterhtmlservlet;
 
+import com.example.templateengine.CompiledTemplate;
+import com.example.templateengine.Mixer;
+import com.example.templateengine.TemplateRegistry;
+
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.function.Supplier;
 
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
@@ -25,7 +30,7 @@ public class VisitCounterMixedHTMLServlet extends HttpServlet {
     /**
      * HTML template for displaying file data or error messages.
      */
-    private static String htmlTemplate = null;
+    private static Supplier<CompiledTemplate> htmlTemplate = null;
 
     /**
      * Initialize servlet and load HTML template.
@@ -33,7 +38,7 @@ public class VisitCounterMixedHTMLServlet extends HttpServlet {
     @Override
     public void init() {
         if (htmlTemplate == null) {
-            htmlTemplate = Mixer.getContent(new File(getServletContext().getRealPath("display-visit-count.html")));
+            htmlTemplate = TemplateRegistry.get(new File(getServletContext().getRealPath("display-visit-count.html")));
         }
     }
 
@@ -73,7 +78,7 @@ public class VisitCounterMixedHTMLServlet extends HttpServlet {
      * @throws IOException If an error occurs during the reading of the HTML template file
      */
     private String getHTML() throws IOException {
-        Mixer generator = new Mixer(htmlTemplate);
+        Mixer generator = new Mixer(htmlTemplate.get());
         generator.add("---hits---", String.valueOf(getVisitCount()));
         return generator.getMix();
     }
@@ -0,0 +1,480 @@
+package com.example.templateengine;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable, pre-parsed form of a {@link Mixer} template. The template is scanned once for markers
+ * (e.g. "---name---") and context markers (e.g. "&lt;!--===entries===--&gt;") and stored as a list of literal
+ * segments and marker slots. A context block is the part of the template between the first two occurrences of a
+ * marker, exactly as {@link Mixer} defines it.
+ * <p>
+ * Instances are safe to share between threads, so a servlet compiles its template once in {@code init()} and every
+ * request creates a cheap {@link Mixer} on top of it. Rendering walks the segments and only fills the slots;
+ * the template text is never rescanned.
+ *
+ * @author Björn Forsberg
+ */
+public final class CompiledTemplate {
+
+    private static final Pattern MARKER = Pattern.compile("<!--=+[^=>]+=+-->|---[A-Za-z0-9_]+(?:-[A-Za-z0-9_]+)*---");
+
+    static final int REMOVED = -2;
+
+    private volatile String source;
+    private final String[] literals;
+    private final byte[][] encodedLiterals;
+    private final int[] slots;
+    private final String[] markers;
+    private final byte[][] encodedMarkers;
+    private final int[] first;
+    private final int[] second;
+    private final int encodedLength;
+    private final int[] blockLengths;
+    private final int[] occurrences;
+    private final Map<String, Integer> markerIds;
+    private final Escaping[] escapings;
+
+    private CompiledTemplate(String source, String[] literals, int[] slots, String[] markers, Map<String, Integer> markerIds) {
+        this.source = source;
+        this.literals = literals;
+        this.slots = slots;
+        this.markers = markers;
+        this.markerIds = markerIds;
+        this.encodedLiterals = encode(literals);
+        this.encodedMarkers = encode(markers);
+        this.escapings = new Escaping[markers.length];
+        Arrays.fill(escapings, Escaping.RAW);
+        this.first = new int[markers.length];
+        this.second = new int[markers.length];
+        locateBlocks(slots, first, second);
+        this.blockLengths = new int[markers.length];
+        this.occurrences = new int[markers.length];
+        this.encodedLength = measure(blockLengths, occurrences);
+    }
+
+    // Same template with other escaping modes, everything else is shared
+    private CompiledTemplate(CompiledTemplate template, Escaping[] escapings) {
+        this.source = template.source;
+        this.literals = template.literals;
+        this.encodedLiterals = template.encodedLiterals;
+        this.slots = template.slots;
+        this.markers = template.markers;
+        this.encodedMarkers = template.encodedMarkers;
+        this.first = template.first;
+        this.second = template.second;
+        this.encodedLength = template.encodedLength;
+        this.blockLengths = template.blockLengths;
+        this.occurrences = template.occurrences;
+        this.markerIds = template.markerIds;
+        this.escapings = escapings;
+    }
+
+    // Same markers and escaping modes with other segments, only the segments that changed are new
+    private CompiledTemplate(CompiledTemplate template, String[] literals, byte[][] encodedLiterals, int[] slots) {
+        this.source = null;
+        this.literals = literals;
+        this.encodedLiterals = encodedLiterals;
+        this.slots = slots;
+        this.markers = template.markers;
+        this.encodedMarkers = template.encodedMarkers;
+        this.markerIds = template.markerIds;
+        this.escapings = template.escapings;
+        this.first = new int[markers.length];
+        this.second = new int[markers.length];
+        locateBlocks(slots, first, second);
+        this.blockLengths = new int[markers.length];
+        this.occurrences = new int[markers.length];
+        this.encodedLength = measure(blockLengths, occurrences);
+    }
+
+    // Helper method, the first and second slot of every marker, which is what delimits the block of a context
+    private static void locateBlocks(int[] slots, int[] first, int[] second) {
+        Arrays.fill(first, -1);
+        Arrays.fill(second, -1);
+        for (int i = 0; i < slots.length; i++) {
+            int id = slots[i];
+            if (id < 0) {
+                continue;
+            }
+            if (first[id] == -1) {
+                first[id] = i;
+            } else if (second[id] == -1) {
+                second[id] = i;
+            }
+        }
+    }
+
+    // Helper method, the encoded length of the whole template and of each context block, and how many slots each
+    // marker has
+    private int measure(int[] blockLengths, int[] occurrences) {
+        int total = 0;
+        for (int i = 0; i < slots.length; i++) {
+            total += slots[i] < 0 ? encodedLiterals[i].length : encodedMarkers[slots[i]].length;
+            if (slots[i] >= 0) {
+                occurrences[slots[i]]++;
+            }
+        }
+        for (int id = 0; id < markers.length; id++) {
+            for (int i = first[id] + 1; i < second[id]; i++) {
+                blockLengths[id] += slots[i] < 0 ? encodedLiterals[i].length : encodedMarkers[slots[i]].length;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Parses a template into literal segments and marker slots.
+     *
+     * @param html the template HTML, typically loaded with {@link Mixer#getContent(java.nio.file.Path, java.nio.charset.Charset)}
+     * @return the compiled template
+     */
+    public static CompiledTemplate compile(String html) {
+        List<String> found = new ArrayList<>();
+        Matcher matcher = MARKER.matcher(html);
+        while (matcher.find()) {
+            found.add(matcher.group());
+        }
+
+        Map<String, Integer> markerIds = new HashMap<>();
+        List<String> markers = new ArrayList<>();
+        for (String marker : found) {
+            if (!markerIds.containsKey(marker) && isUnambiguous(html, marker, found)) {
+                markerIds.put(marker, markers.size());
+                markers.add(marker);
+            }
+        }
+
+        List<String> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int position = 0;
+        matcher.reset();
+        while (matcher.find()) {
+            Integer id = markerIds.get(matcher.group());
+            if (id == null) {
+                continue;
+            }
+            literal.append(html, position, matcher.start());
+            if (literal.length() > 0) {
+                literals.add(literal.toString());
+                slots.add(-1);
+                literal.setLength(0);
+            }
+            literals.add(null);
+            slots.add(id);
+            position = matcher.end();
+        }
+        literal.append(html, position, html.length());
+        if (literal.length() > 0) {
+            literals.add(literal.toString());
+            slots.add(-1);
+        }
+
+        int[] slotArray = new int[slots.size()];
+        for (int i = 0; i < slotArray.length; i++) {
+            slotArray[i] = slots.get(i);
+        }
+        return new CompiledTemplate(html, literals.toArray(new String[0]), slotArray, markers.toArray(new String[0]), markerIds);
+    }
+
+    /**
+     * A marker only gets a slot if a plain left-to-right search for it finds exactly the occurrences the parser found.
+     * Markers that overlap other text in another way are left as literal text so that {@link Mixer} falls back to
+     * plain string replacement for them.
+     */
+    private static boolean isUnambiguous(String html, String marker, List<String> found) {
+        int expected = 0;
+        for (String candidate : found) {
+            if (candidate.equals(marker)) {
+                expected++;
+            }
+        }
+        int count = 0;
+        for (int i = html.indexOf(marker); i != -1; i = html.indexOf(marker, i + marker.length())) {
+            count++;
+        }
+        return count == expected;
+    }
+
+    // Helper method, literal text is UTF-8 encoded once here instead of by the response writer on every request
+    private static byte[][] encode(String[] strings) {
+        byte[][] encoded = new byte[strings.length][];
+        for (int i = 0; i < strings.length; i++) {
+            if (strings[i] != null) {
+                encoded[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Returns the template text this instance was compiled from. For a template made by
+     * {@link #withBlockBody(int, String)} the text is put together from the segments the first time it is asked for.
+     *
+     * @return the template source
+     */
+    public String getSource() {
+        String text = source;
+        if (text == null) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < slots.length; i++) {
+                sb.append(slots[i] < 0 ? literals[i] : markers[slots[i]]);
+            }
+            text = sb.toString();
+            source = text;
+        }
+        return text;
+    }
+
+    /**
+     * Returns a template with the body of a context block replaced, the context markers kept. The segments before and
+     * after the block, their encoded bytes and the markers are shared with this template; only the new body is parsed,
+     * against the markers of this template. Markers in the body that this template has no slot for are left as text.
+     *
+     * @param context the slot id of the context marker, which must be a context
+     * @param body    the new body of the block
+     * @return the template with the new block body
+     */
+    CompiledTemplate withBlockBody(int context, String body) {
+        List<String> found = new ArrayList<>();
+        Matcher matcher = MARKER.matcher(body);
+        while (matcher.find()) {
+            found.add(matcher.group());
+        }
+
+        List<String> bodyLiterals = new ArrayList<>();
+        List<Integer> bodySlots = new ArrayList<>();
+        int position = 0;
+        matcher.reset();
+        while (matcher.find()) {
+            Integer id = markerIds.get(matcher.group());
+            if (id == null || !isUnambiguous(body, matcher.group(), found)) {
+                continue;
+            }
+            if (matcher.start() > position) {
+                bodyLiterals.add(body.substring(position, matcher.start()));
+                bodySlots.add(-1);
+            }
+            bodyLiterals.add(null);
+            bodySlots.add(id);
+            position = matcher.end();
+        }
+        if (body.length() > position) {
+            bodyLiterals.add(body.substring(position));
+            bodySlots.add(-1);
+        }
+
+        int start = first[context] + 1;
+        int end = second[context];
+        int length = start + bodySlots.size() + slots.length - end;
+        String[] newLiterals = new String[length];
+        byte[][] newEncoded = new byte[length][];
+        int[] newSlots = new int[length];
+        System.arraycopy(literals, 0, newLiterals, 0, start);
+        System.arraycopy(encodedLiterals, 0, newEncoded, 0, start);
+        System.arraycopy(slots, 0, newSlots, 0, start);
+        for (int i = 0; i < bodySlots.size(); i++) {
+            newLiterals[start + i] = bodyLiterals.get(i);
+            newSlots[start + i] = bodySlots.get(i);
+        }
+        byte[][] bodyEncoded = encode(bodyLiterals.toArray(new String[0]));
+        System.arraycopy(bodyEncoded, 0, newEncoded, start, bodyEncoded.length);
+        int suffix = start + bodySlots.size();
+        System.arraycopy(literals, end, newLiterals, suffix, slots.length - end);
+        System.arraycopy(encodedLiterals, end, newEncoded, suffix, slots.length - end);
+        System.arraycopy(slots, end, newSlots, suffix, slots.length - end);
+        return new CompiledTemplate(this, newLiterals, newEncoded, newSlots);
+    }
+
+    /**
+     * Returns a template that escapes the values of the given markers. The template itself is not changed, the
+     * returned one shares everything with it but the escaping modes, so this is cheap and is typically done once,
+     * right after compiling.
+     * <p>Example: template = CompiledTemplate.compile(html).escape(Escaping.HTML, "---name---", "---comment---");</p>
+     *
+     * @param escaping how the values are escaped
+     * @param markers  the markers whose values are escaped
+     * @return the template with the escaping modes set
+     * @throws IllegalArgumentException if a marker has no slot in this template
+     */
+    public CompiledTemplate escape(Escaping escaping, String... markers) {
+        Escaping[] modes = escapings.clone();
+        for (String marker : markers) {
+            int id = idOf(marker);
+            if (id == -1) {
+                throw new IllegalArgumentException("No slot for marker " + marker + " in the template");
+            }
+            modes[id] = escaping;
+        }
+        return new CompiledTemplate(this, modes);
+    }
+
+    /**
+     * Returns the encoded length of the text inside a context block, markers included, which is what every row of
+     * the context adds to the page besides its values.
+     *
+     * @param id the slot id of the context marker
+     * @return the length in UTF-8 bytes, 0 for a marker that is not a context
+     */
+    int blockLength(int id) {
+        return blockLengths[id];
+    }
+
+    /**
+     * Returns how many slots a marker has, which is how many times its value is written for every row.
+     *
+     * @param id the slot id, possibly of a marker not in the template
+     * @return the number of slots, at least 1
+     */
+    int occurrences(int id) {
+        return id < occurrences.length ? Math.max(occurrences[id], 1) : 1;
+    }
+
+    /**
+     * Estimates the size of a render from the encoded template, every context block counted once per row, and the
+     * length of the values, without walking the rows. The markers are counted as well as the values that replace
+     * them, so the estimate is a little over for ASCII values, which leaves room for escaped and non-ASCII
+     * characters. It is used to size the buffer a page is rendered into.
+     *
+     * @param rowCounts   as for {@link #render(String[], String[][], int[], byte[][][], TemplateSink)}
+     * @param valueLength the total length of the values, each counted once for every slot of its marker
+     * @return the estimated size in UTF-8 bytes
+     */
+    int estimateSize(int[] rowCounts, long valueLength) {
+        long size = encodedLength + valueLength;
+        for (int id = 0; id < markers.length; id++) {
+            if (second[id] == -1 || rowCounts[id] == -1) {
+                continue;
+            }
+            if (rowCounts[id] == REMOVED) {
+                size -= blockLengths[id];
+            } else {
+                size += (long) (Math.max(rowCounts[id], 1) - 1) * blockLengths[id];
+            }
+        }
+        return (int) Math.max(0, Math.min(size, Integer.MAX_VALUE - 8));
+    }
+
+    /**
+     * Returns the slot id of a marker, or -1 if the marker has no slot in this template.
+     *
+     * @param marker the marker string
+     * @return the slot id or -1
+     */
+    int idOf(String marker) {
+        Integer id = markerIds.get(marker);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the number of distinct markers in this template.
+     *
+     * @return the marker count
+     */
+    int markerCount() {
+        return markers.length;
+    }
+
+    /**
+     * Checks whether a marker occurs at least twice, which is what makes it usable as a context.
+     *
+     * @param id the slot id of the marker
+     * @return true if the marker encloses a context block
+     */
+    boolean isContext(int id) {
+        return second[id] != -1;
+    }
+
+    /**
+     * Returns the marker with the given slot id.
+     *
+     * @param id the slot id
+     * @return the marker string
+     */
+    String markerOf(int id) {
+        return markers[id];
+    }
+
+    /**
+     * Returns the escaping modes of the markers, indexed by slot id. The array is not copied and must not be changed.
+     *
+     * @return the escaping modes
+     */
+    Escaping[] escapings() {
+        return escapings;
+    }
+
+    /**
+     * Renders the template segment by segment into a sink. Values are looked up by slot id in flat arrays; ids at or
+     * beyond {@link #markerCount()} belong to markers that are not in the template and are ignored.
+     *
+     * @param values    values for markers outside any context, indexed by slot id
+     * @param cells     the rows of each context, indexed by the slot id of the context marker; row {@code r} holds the
+     *                  value of marker {@code id} at {@code r * values.length + id}
+     * @param rowCounts the number of rows of each context, -1 for contexts that have not been used, in which case the
+     *                  context markers are treated like any other marker, or {@link #REMOVED} for contexts whose
+     *                  block, context markers included, is left out
+     * @param fragments rows that are already rendered, indexed by context and row, null where a row is rendered
+     *                  from its cells; may be null
+     * @param out       the sink to render into
+     * @throws IOException if the sink fails to write
+     */
+    void render(String[] values, String[][] cells, int[] rowCounts, byte[][][] fragments, TemplateSink out) throws IOException {
+        render(0, slots.length, values, null, -1, cells, rowCounts, fragments, out);
+    }
+
+    /**
+     * Renders one row of a context into a sink, without the context markers.
+     *
+     * @param context   the slot id of the context marker
+     * @param row       the row
+     * @param values    as for {@link #render(String[], String[][], int[], byte[][][], TemplateSink)}
+     * @param cells     as for {@link #render(String[], String[][], int[], byte[][][], TemplateSink)}
+     * @param rowCounts as for {@link #render(String[], String[][], int[], byte[][][], TemplateSink)}
+     * @param out       the sink to render into
+     * @throws IOException if the sink fails to write
+     */
+    void renderRow(int context, int row, String[] values, String[][] cells, int[] rowCounts, TemplateSink out) throws IOException {
+        render(first[context] + 1, second[context], values, cells[context], row * values.length, cells, rowCounts, null, out);
+    }
+
+    private void render(int from, int to, String[] values, String[] row, int offset, String[][] cells, int[] rowCounts,
+                        byte[][][] fragments, TemplateSink out) throws IOException {
+        for (int i = from; i < to; i++) {
+            int id = slots[i];
+            if (id < 0) {
+                out.literal(literals[i], encodedLiterals[i]);
+            } else if (i == first[id] && rowCounts[id] == REMOVED && second[id] != -1) {
+                i = second[id];
+            } else if (i == first[id] && rowCounts[id] != -1 && second[id] != -1) {
+                int end = second[id];
+                if (rowCounts[id] == 0) {
+                    render(i + 1, end, values, row, offset, cells, rowCounts, fragments, out);
+                }
+                for (int r = 0; r < rowCounts[id]; r++) {
+                    if (fragments != null && fragments[id] != null && fragments[id][r] != null) {
+                        out.fragment(fragments[id][r]);
+                    } else {
+                        render(i + 1, end, values, cells[id], r * values.length, cells, rowCounts, fragments, out);
+                    }
+                    out.endRow();
+                }
+                i = end;
+            } else if (row != null && row[offset + id] != null) {
+                out.value(row[offset + id], escapings[id]);
+            } else if (values[id] != null) {
+                out.value(values[id], escapings[id]);
+            } else {
+                out.literal(markers[id], encodedMarkers[id]);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.templateengine;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * How the value of a marker slot is escaped when it is written into the page. The mode is declared per marker on a
+ * {@link CompiledTemplate} with {@link CompiledTemplate#escape(Escaping, String...)}, and the value is escaped while
+ * it is written to the output buffer, so no escaped copy of the value is ever created.
+ *
+ * @author Björn Forsberg
+ */
+public enum Escaping {
+
+    /**
+     * The value is written as it is. This is the default for every marker.
+     */
+    RAW(""),
+
+    /**
+     * For values in element content: {@code & < > " '} are replaced by character references.
+     */
+    HTML("&<>\"'"),
+
+    /**
+     * For values in attribute values: like {@link #HTML}, and {@code `} and {@code =} are replaced as well so that
+     * an unquoted attribute value cannot be broken out of either.
+     */
+    ATTRIBUTE("&<>\"'`="),
+
+    /**
+     * For values in a URL component, such as a query parameter: every character except the unreserved characters
+     * of RFC 3986 is percent-encoded as UTF-8.
+     */
+    URL(null);
+
+    private final String[] replacements = new String[128];
+    private final byte[][] encodedReplacements = new byte[128][];
+
+    /**
+     * @param escaped the ASCII characters replaced by character references, or null to percent-encode everything
+     *                but the unreserved characters
+     */
+    Escaping(String escaped) {
+        for (char c = 0; c < 128; c++) {
+            String replacement = null;
+            if (escaped == null) {
+                boolean unreserved = (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                        || c == '-' || c == '.' || c == '_' || c == '~';
+                replacement = unreserved ? null : String.format("%%%02X", (int) c);
+            } else if (escaped.indexOf(c) != -1) {
+                replacement = c == '&' ? "&amp;" : c == '<' ? "&lt;" : c == '>' ? "&gt;" : c == '"' ? "&quot;" : "&#" + (int) c + ";";
+            }
+            if (replacement != null) {
+                replacements[c] = replacement;
+                encodedReplacements[c] = replacement.getBytes(StandardCharsets.US_ASCII);
+            }
+        }
+    }
+
+    /**
+     * Returns the replacement of an ASCII character, already encoded as bytes.
+     *
+     * @param c the character, below 128
+     * @return the replacement bytes, or null if the character is written as it is
+     */
+    byte[] encodedReplacement(char c) {
+        return encodedReplacements[c];
+    }
+
+    /**
+     * Checks whether characters outside ASCII are percent-encoded, which only {@link #URL} does.
+     *
+     * @return true for {@link #URL}
+     */
+    boolean encodesNonAscii() {
+        return this == URL;
+    }
+
+    /**
+     * Appends a value, escaped, to a buffer. Runs of characters that need no escaping are appended in one go.
+     *
+     * @param value the value
+     * @param out   the buffer to append to
+     */
+    void escape(String value, StringBuilder out) {
+        if (this == RAW) {
+            out.append(value);
+            return;
+        }
+        int copied = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 128) {
+                if (replacements[c] != null) {
+                    out.append(value, copied, i).append(replacements[c]);
+                    copied = i + 1;
+                }
+            } else if (encodesNonAscii()) {
+                out.append(value, copied, i);
+                int codePoint = c;
+                if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    codePoint = Character.toCodePoint(c, value.charAt(++i));
+                } else if (Character.isSurrogate(c)) {
+                    codePoint = '?'; // unpaired surrogate, replaced like the JDK encoder does
+                }
+                percentEncode(codePoint, out);
+                copied = i + 1;
+            }
+        }
+        out.append(value, copied, value.length());
+    }
+
+    // Helper method, the UTF-8 bytes of a code point as %XX
+    private static void percentEncode(int codePoint, StringBuilder out) {
+        if (codePoint < 0x80) {
+            percent(codePoint, out);
+        } else if (codePoint < 0x800) {
+            percent(0xC0 | (codePoint >> 6), out);
+            percent(0x80 | (codePoint & 0x3F), out);
+        } else if (codePoint < 0x10000) {
+            percent(0xE0 | (codePoint >> 12), out);
+            percent(0x80 | ((codePoint >> 6) & 0x3F), out);
+            percent(0x80 | (codePoint & 0x3F), out);
+        } else {
+            percent(0xF0 | (codePoint >> 18), out);
+            percent(0x80 | ((codePoint >> 12) & 0x3F), out);
+            percent(0x80 | ((codePoint >> 6) & 0x3F), out);
+            percent(0x80 | (codePoint & 0x3F), out);
+        }
+    }
+
+    private static void percent(int b, StringBuilder out) {
+        out.append('%').append(Character.toUpperCase(Character.forDigit(b >> 4, 16))).append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.templateengine;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of rendered context rows, stored as the UTF-8 bytes they render to. A row is keyed by the template it was
+ * rendered with and an id and version chosen by the caller, typically the id of the entity the row shows and a
+ * number that changes whenever the rendered row would change. A reloaded template, or the same template with other
+ * escaping modes, is another template, so its rows are never mixed up with the old ones.
+ * <p>
+ * The cache is bounded by the total number of bytes it holds; when it is full, the least recently used rows are
+ * evicted. It is safe to share between threads; one instance is typically kept by a servlet.
+ * <p>Example: mixer.addRow("---context---", cache, guest.getId(), 0, () -&gt; rowOf(guest));</p>
+ *
+ * @author Björn Forsberg
+ */
+public final class FragmentCache {
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, byte[]> fragments = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxBytes the maximum total size of the cached rows in bytes
+     */
+    public FragmentCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the total size of the cached rows.
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the maximum total size of the cached rows.
+     *
+     * @return the size in bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Removes all cached rows.
+     */
+    public synchronized void clear() {
+        fragments.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Returns the cached row for a key, marking it as recently used.
+     *
+     * @param key the key
+     * @return the UTF-8 bytes of the row, or null if it is not cached
+     */
+    synchronized byte[] get(Key key) {
+        return fragments.get(key);
+    }
+
+    /**
+     * Caches a rendered row, evicting the least recently used rows until the cache is within its bound again.
+     * A row larger than the whole cache is not cached.
+     *
+     * @param key      the key
+     * @param fragment the UTF-8 bytes of the row; must not be changed afterwards
+     */
+    synchronized void put(Key key, byte[] fragment) {
+        if (fragment.length > maxBytes) {
+            return;
+        }
+        byte[] previous = fragments.put(key, fragment);
+        bytes += fragment.length - (previous == null ? 0 : previous.length);
+        Iterator<Map.Entry<Key, byte[]>> eldest = fragments.entrySet().iterator();
+        while (bytes > maxBytes) {
+            bytes -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Identifies one rendered row: the template it was rendered with, compared by identity, and the id and version
+     * of what it shows.
+     */
+    static final class Key {
+        private final CompiledTemplate template;
+        private final Object id;
+        private final long version;
+
+        Key(CompiledTemplate template, Object id, long version) {
+            this.template = template;
+            this.id = id;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return template == other.template && version == other.version && id.equals(other.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(template) + id.hashCode()) + Long.hashCode(version);
+        }
+    }
+}
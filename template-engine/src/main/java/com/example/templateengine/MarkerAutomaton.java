@@ -0,0 +1,153 @@
+package com.example.templateengine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton over a set of markers. It finds every marker in one left-to-right pass over the text,
+ * so {@link Mixer} can substitute all markers of a context with a single scan instead of one scan and one copy of
+ * the document per marker.
+ * <p>
+ * Matches are replaced as soon as they end, preferring the longest marker ending at that position, and the scan
+ * continues after the replaced marker. For markers that do not overlap each other in the text, which is how Mixer
+ * templates are written, the result is the same as replacing the markers one after another.
+ *
+ * @author Björn Forsberg
+ */
+final class MarkerAutomaton {
+
+    private final String[] markers;
+    private char[][] keys;
+    private int[][] next;
+    private int[] childCount;
+    private int[] fail;
+    private int[] terminal;
+    private int[] dictionary;
+    private int nodeCount = 1;
+
+    /**
+     * Builds the automaton.
+     *
+     * @param markers the markers to search for; empty markers are ignored
+     */
+    MarkerAutomaton(String[] markers) {
+        this.markers = markers;
+        int capacity = 1;
+        for (String marker : markers) {
+            capacity += marker.length();
+        }
+        keys = new char[capacity][];
+        next = new int[capacity][];
+        childCount = new int[capacity];
+        fail = new int[capacity];
+        terminal = new int[capacity];
+        dictionary = new int[capacity];
+        Arrays.fill(terminal, -1);
+        Arrays.fill(dictionary, -1);
+
+        for (int m = 0; m < markers.length; m++) {
+            String marker = markers[m];
+            if (marker.isEmpty()) {
+                continue;
+            }
+            int node = 0;
+            for (int i = 0; i < marker.length(); i++) {
+                int child = child(node, marker.charAt(i));
+                node = child == -1 ? addChild(node, marker.charAt(i)) : child;
+            }
+            if (terminal[node] == -1) {
+                terminal[node] = m;
+            }
+        }
+        linkFailures();
+    }
+
+    /**
+     * Appends a part of the text to a buffer with every marker that has a value replaced by its value.
+     * Markers without a value are copied as they are.
+     *
+     * @param text      the text to scan
+     * @param from      the index of the first character to scan
+     * @param to        the index after the last character to scan
+     * @param values    the values, indexed like the markers the automaton was built from; null for no value
+     * @param offset    the index in {@code values} of the value of the first marker
+     * @param escapings how the values are escaped, indexed like the markers; markers beyond its end are not escaped
+     * @param out       the buffer to append to
+     */
+    void replace(String text, int from, int to, String[] values, int offset, Escaping[] escapings, StringBuilder out) {
+        int state = 0;
+        int copied = from;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            int child = child(state, c);
+            while (child == -1 && state != 0) {
+                state = fail[state];
+                child = child(state, c);
+            }
+            state = child == -1 ? 0 : child;
+
+            for (int node = terminal[state] != -1 ? state : dictionary[state]; node != -1; node = dictionary[node]) {
+                int m = terminal[node];
+                String value = values[offset + m];
+                if (value != null) {
+                    out.append(text, copied, i + 1 - markers[m].length());
+                    (m < escapings.length ? escapings[m] : Escaping.RAW).escape(value, out);
+                    copied = i + 1;
+                    state = 0;
+                    break;
+                }
+            }
+        }
+        out.append(text, copied, to);
+    }
+
+    private int child(int node, char c) {
+        char[] nodeKeys = keys[node];
+        for (int i = 0; i < childCount[node]; i++) {
+            if (nodeKeys[i] == c) {
+                return next[node][i];
+            }
+        }
+        return -1;
+    }
+
+    private int addChild(int node, char c) {
+        if (keys[node] == null) {
+            keys[node] = new char[2];
+            next[node] = new int[2];
+        } else if (childCount[node] == keys[node].length) {
+            keys[node] = Arrays.copyOf(keys[node], childCount[node] * 2);
+            next[node] = Arrays.copyOf(next[node], childCount[node] * 2);
+        }
+        int child = nodeCount++;
+        keys[node][childCount[node]] = c;
+        next[node][childCount[node]] = child;
+        childCount[node]++;
+        return child;
+    }
+
+    // Breadth-first, so the failure link of every shallower node is known when a node is linked
+    private void linkFailures() {
+        List<Integer> queue = new ArrayList<>();
+        for (int i = 0; i < childCount[0]; i++) {
+            queue.add(next[0][i]);
+        }
+        for (int head = 0; head < queue.size(); head++) {
+            int node = queue.get(head);
+            for (int i = 0; i < childCount[node]; i++) {
+                char c = keys[node][i];
+                int child = next[node][i];
+                int state = fail[node];
+                int target = child(state, c);
+                while (target == -1 && state != 0) {
+                    state = fail[state];
+                    target = child(state, c);
+                }
+                fail[child] = target == -1 || target == child ? 0 : target;
+                dictionary[child] = terminal[fail[child]] != -1 ? fail[child] : dictionary[fail[child]];
+                queue.add(child);
+            }
+        }
+    }
+}
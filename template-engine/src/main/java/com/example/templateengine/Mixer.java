@@ -0,0 +1,683 @@
+package com.example.templateengine;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * <p>Title: Mixer</p>
+ * <p>Description: Mixer is a simple helper-class (that is easy to use) for Servlet programmers that enable a complete separation of Servlet- and HTML-code.</p>
+ * <p>Copyright: GNU GPL, http://www.gnu.org/licenses/licenses.html#TOCGPL</p>
+ * <p>The values are kept in plain arrays indexed by the slot ids of a {@link CompiledTemplate}. A Mixer is meant to be used by one request (one thread) only and is not synchronized.</p>
+ * @author Pierre Wijkman, pierre@dsv.su.se (generator) and Björn Nilsson, bjorn-ni@dsv.su.se (tester), created September-November 2002
+ * @version 0.70
+ */
+public class Mixer {
+    private String html = null;             // the template as text, kept once it is needed or has been edited as text
+    private final String contextNull = "---nullun---";
+    private final CompiledTemplate sharedTemplate;
+    private CompiledTemplate template;       // the shared template, or a copy with edited context blocks
+    private boolean edited = false;         // the html has been edited as text and no longer matches the compiled template
+    private boolean stringMix = false;      // a marker or context without a slot occurs in the html
+    private int flushInterval = 8192;
+    private long valueLength = 0;           // the length of the values added, which sizes the output buffer
+
+    // Markers added that have no slot in the template get ids after the template's own
+    private Map<String, Integer> extraIds = null;
+    private List<String> extraMarkers = null;
+    private int width;
+
+    // Context null: values[id]. Contexts: rowCells[context id][row * width + id], rowCounts[context id] is -1 for unused contexts
+    private String[] values;
+    // Context null: the values added for a marker after its first, which take its place in turn if it is removed
+    private Map<Integer, List<String>> laterValues = null;
+    private String[][] rowCells;
+    private int[] rowCounts;
+    private int[] firstMarkers;
+    private boolean[] explicitRows;
+
+    // Rows from a fragment cache: rowFragments[context id][row] is the rendered row, rowKeys[context id][row] the key of a row to be cached
+    private byte[][][] rowFragments;
+    private FragmentCache.Key[][] rowKeys;
+    private FragmentCache[] rowCaches;
+
+    /**
+     * <p>Constructor for the Mixer object.</p>
+     * <p>Example: Mixer mixer = new Mixer(html);</p>
+     *
+     * @param html The string containing the template HTML-file.
+     */
+    public Mixer(String html) {
+        this(CompiledTemplate.compile(html));
+    }
+
+    /**
+     * <p>Constructor for the Mixer object based on a template that has already been parsed. The template is shared,
+     * the Mixer only holds the values of the current request.</p>
+     * <p>Example: Mixer mixer = new Mixer(CompiledTemplate.compile(html));</p>
+     *
+     * @param template The compiled template HTML-file.
+     */
+    public Mixer(CompiledTemplate template) {
+        this.sharedTemplate = template;
+        this.template = template;
+        this.width = template.markerCount();
+        this.values = new String[width];
+        this.rowCells = new String[width][];
+        this.rowCounts = new int[width];
+        this.firstMarkers = new int[width];
+        this.explicitRows = new boolean[width];
+        this.rowFragments = new byte[width][][];
+        this.rowKeys = new FragmentCache.Key[width][];
+        this.rowCaches = new FragmentCache[width];
+        Arrays.fill(rowCounts, -1);
+    }
+
+    /**
+     * <p>Adds a marker that should be substituted by a value. Context of replacement in the HTML-document: no specific.
+     * <p>Example: mixer.add("---email---", "pierre@dsv.su.se");</p>
+     *
+     * @param marker The marker string that will be replaced by the value string in the HTML-document.
+     * @param value The value string that will replace the marker string in the HTML-document.
+     */
+    public void add(String marker, String value) {
+        add(contextNull, marker, value);
+    }
+
+    /**
+     * <p>Adds a marker that should be substituted by a value. Context of replacement in the HTML-document: specific. This context can be used repeatedly and is marked in the HTML-document by two identical markers.</p>
+     * <p>Example: mixer.add("---context---", "---email---", "pierre@dsv.su.se");</p>
+     *
+     * @param context The context string that marks a specific area in the HTML-document.
+     * @param marker The marker string that will be replaced by the value string in the HTML-document.
+     * @param value The value string that will replace the marker string in the HTML-document.
+     */
+    public void add(String context, String marker, String value) {
+        if(value == null)  { value = "null"; }
+
+        int id = idOf(marker);
+        if(context.equals(contextNull)) {
+            if(values[id] == null) {
+                values[id] = value;
+                valueLength += (long) value.length() * template.occurrences(id);
+            } else {
+                if(laterValues == null) laterValues = new HashMap<>();
+                laterValues.computeIfAbsent(id, k -> new ArrayList<>()).add(value);
+            }
+        } else {
+            int c = contextIdOf(context);
+            if(rowCounts[c] == CompiledTemplate.REMOVED) return;
+            if(rowCounts[c] <= 0 || (!explicitRows[c] && id == firstMarkers[c])) newRow(c);
+            if(firstMarkers[c] == -1) firstMarkers[c] = id;
+            int cell = (rowCounts[c] - 1) * width + id;
+            if(rowCells[c][cell] == null) {
+                rowCells[c][cell] = value;
+                valueLength += (long) value.length() * template.occurrences(id);
+            }
+        }
+    }
+
+    /**
+     * <p>Adds a row to a context. Every row is rendered as one copy of the context, with the markers of the row substituted by its values,
+     * in the order the rows are added. Unlike add(context, marker, value), the rows do not have to begin with the same marker.
+     * The map is copied, so the same map can be filled again for the next row.</p>
+     * <p>Example: row.put("---email---", "pierre@dsv.su.se"); mixer.addRow("---context---", row);</p>
+     *
+     * @param context The context string that marks a specific area in the HTML-document.
+     * @param row The marker strings of the row mapped to the value strings that will replace them.
+     */
+    public void addRow(String context, Map<String, String> row) {
+        int c = contextIdOf(context);
+        if(rowCounts[c] == CompiledTemplate.REMOVED) return;
+        explicitRows[c] = true;
+        newRow(c);
+        for(Map.Entry<String, String> entry : row.entrySet()) {
+            int id = idOf(entry.getKey());
+            if(firstMarkers[c] == -1) firstMarkers[c] = id;
+            String value = entry.getValue() == null ? "null" : entry.getValue();
+            rowCells[c][(rowCounts[c] - 1) * width + id] = value;
+            valueLength += (long) value.length() * template.occurrences(id);
+        }
+    }
+
+    /**
+     * <p>Adds a row to a context through a cache of rendered rows. If the cache holds the row with this id and version, rendered with the same template,
+     * the cached bytes are used and the row is never built; otherwise the row is built, rendered with the page and cached.
+     * The version must change whenever the row would render differently, and the row should only use markers of its own,
+     * as values added to no specific context are rendered into the cached row. Cached rows are only reused while the HTML-code of the Mixer is not changed.</p>
+     * <p>Example: mixer.addRow("---context---", cache, guest.getId(), number, () -&gt; rowOf(guest, number));</p>
+     *
+     * @param context The context string that marks a specific area in the HTML-document.
+     * @param cache The cache of rendered rows.
+     * @param id The id of what the row shows, typically the id of an entity.
+     * @param version The version of what the row shows.
+     * @param row Builds the marker strings of the row mapped to the value strings that will replace them, only called when the row is not cached.
+     */
+    public void addRow(String context, FragmentCache cache, Object id, long version, Supplier<Map<String, String>> row) {
+        int c = contextIdOf(context);
+        if(rowCounts[c] == CompiledTemplate.REMOVED) return;
+        if(edited || stringMix || template != sharedTemplate) {
+            addRow(context, row.get());
+            return;
+        }
+        FragmentCache.Key key = new FragmentCache.Key(template, id, version);
+        byte[] fragment = cache.get(key);
+        if(fragment == null) {
+            addRow(context, row.get());
+            if(rowKeys[c] == null) rowKeys[c] = new FragmentCache.Key[Math.max(rowCounts[c], 16)];
+            rowKeys[c] = ensureRow(rowKeys[c], rowCounts[c]);
+            rowKeys[c][rowCounts[c] - 1] = key;
+            rowCaches[c] = cache;
+        } else {
+            explicitRows[c] = true;
+            newRow(c);
+            if(rowFragments[c] == null) rowFragments[c] = new byte[Math.max(rowCounts[c], 16)][];
+            rowFragments[c] = ensureRow(rowFragments[c], rowCounts[c]);
+            rowFragments[c][rowCounts[c] - 1] = fragment;
+            valueLength += fragment.length - template.blockLength(c);
+        }
+    }
+
+    /**
+     * <p>Removes a marker-value pair associated with no specific context of the HTML-document.</p>
+     * <p>Example: mixer.remove("---email---", "pierre@dsv.su.se");</p>
+     *
+     * @param marker The marker string (associated with the value string parameter) that will be removed.
+     * @param value The value string (associated with the marker string parameter) that will be removed.
+     */
+    public void remove(String marker, String value) {
+        remove(contextNull, marker, value);
+    }
+
+    /**
+     * <p>Removes a marker-value pair associated with a specific context of the HTML-document.</p>
+     * <p>With no specific context, the last pair added with this marker and value is removed, and if it was the value in use, the value added next for the marker is used in its place.
+     * In a context, the value is removed from the last row that holds it, and the marker of that row is left in the HTML-document as it is; the other rows are not changed.
+     * (Before the templates were compiled, a removed pair was taken out of the list of pairs of the context, which shifted the pairs added after it into other rows.)</p>
+     * <p>Example: mixer.remove("---context---", "---email---", "pierre@dsv.su.se");</p>
+     *
+     * @param context The context string that marks a specific area in the HTML-document.
+     * @param marker The marker string (accociated with the value string parameter) that will be removed.
+     * @param value The value string (accociated with the marker string parameter) that will be removed.
+     */
+    public void remove(String context, String marker, String value) {
+        if(value == null)  { value = "null"; }
+
+        int id = idOf(marker);
+        if(context.equals(contextNull)) {
+            List<String> later = laterValues == null ? null : laterValues.get(id);
+            int last = later == null ? -1 : later.lastIndexOf(value);
+            if(last != -1) {
+                later.remove(last);
+            } else if(value.equals(values[id])) {
+                values[id] = later == null || later.isEmpty() ? null : later.remove(0);
+                if(values[id] != null) valueLength += (long) values[id].length() * template.occurrences(id);
+            }
+            return;
+        }
+        int c = contextIdOf(context);
+        for(int row = rowCounts[c] - 1; row >= 0; row--) {
+            if(value.equals(rowCells[c][row * width + id])) {
+                rowCells[c][row * width + id] = null;
+                return;
+            }
+        }
+    }
+
+    /**
+     * <p>Clears all entries associated with no specific context of the HTML-document.</p>
+     * <p>Example: mixer.clear();</p>
+     */
+    public void clear() {
+        clearContext(contextNull);
+    }
+
+    /**
+     * <p>Clears all entries associated with a specific context of the HTML-document.</p>
+     * <p>Example: mixer.clear("---context---");</p>
+     *
+     * @param context The context that will be cleared.
+     */
+    public void clearContext(String context) {
+        if(context.equals(contextNull)) {
+            Arrays.fill(values, null);
+            laterValues = null;
+        } else {
+            int c = contextIdOf(context);
+            rowCells[c] = null;
+            if(rowCounts[c] != CompiledTemplate.REMOVED) rowCounts[c] = -1;
+            firstMarkers[c] = -1;
+            explicitRows[c] = false;
+            rowFragments[c] = null;
+            rowKeys[c] = null;
+        }
+    }
+
+    /**
+     * <p>Clears all enries associated with no and all HTML-document contexts</p>
+     * <p>Example: mixer.clearAll();</p>
+     */
+    public void clearAll() {
+        Arrays.fill(values, null);
+        laterValues = null;
+        Arrays.fill(rowCells, null);
+        for(int c = 0; c < width; c++) {
+            if(rowCounts[c] != CompiledTemplate.REMOVED) rowCounts[c] = -1;
+        }
+        Arrays.fill(explicitRows, false);
+        Arrays.fill(rowFragments, null);
+        Arrays.fill(rowKeys, null);
+        valueLength = 0;
+    }
+
+    /**
+     * <p>Removes all HTML-code from a context including the context markers.</p>
+     * <p>Example: mixer.removeContext("---context---");</p>
+     *
+     * @param context The HTML-document context that will be removed.
+     */
+    public void removeContext(String context) {
+        int c = template.idOf(context);
+        if(!edited && c != -1 && template.isContext(c)) {
+            // The block is skipped when the template is rendered, nothing is copied
+            rowCounts[c] = CompiledTemplate.REMOVED;
+            html = null;
+            return;
+        }
+        String htmls[] = splitIn3(getHtml(), context);
+        html = htmls[0] + htmls[2];
+        edited = true;
+    }
+
+    /**
+     * <p>Adds HTML-code to a context.</p>
+     * <p>Example: mixer.addHTML(htmlPart, "---context---");</p>
+     * <p>Note! Experimental.</p>
+     *
+     * @param htmlPart The string that contains the subpart HTML-code that will be included.
+     * @param context The HTML-document context where the subpart HTML-code will be inserted.
+     */
+    public void addHTML(String htmlPart, String context) {
+        int c = template.idOf(context);
+        if(!edited && c != -1 && template.isContext(c)) {
+            // Only the new block is parsed, the rest of the segments are shared with the compiled template
+            template = template.withBlockBody(c, htmlPart);
+            html = null;
+            return;
+        }
+        String htmls[] = splitIn3(getHtml(), context);
+        html = htmls[0] + context + htmlPart + context + htmls[2];
+        edited = true;
+    }
+
+    /**
+     * <p>Removes all HTML-code from a context excluding the context markers.</p>
+     * <p>Example: mixer.removeHTML("---context---");</p>
+     * <p>Note! Experimental.</p>
+     *
+     * @param context The HTML-document context where the subpart HTML-code will be removed.
+     */
+    public void removeHTML(String context) {
+        int c = template.idOf(context);
+        if(!edited && c != -1 && template.isContext(c)) {
+            template = template.withBlockBody(c, "\n");
+            html = null;
+            return;
+        }
+        String htmls[] = splitIn3(getHtml(), context);
+        html = htmls[0] + context + "\n" + context + htmls[2];
+        edited = true;
+    }
+
+    /**
+     * <p>Mixes the template HTML-document with the added marker-value pairs and returns the result.</p>
+     * <p>Example: String html = mixer.getMix();</p>
+     *
+     * @return A string with the result of mixing the values from the Java- and the HTML-code.
+     */
+    public String getMix() {
+        if(!edited && !stringMix) {
+            return getCompiledMix();
+        }
+
+        String[] markers = getMarkers();
+        MarkerAutomaton automaton = new MarkerAutomaton(markers);
+        String htmlResult = getHtml();
+        for(int c = 0; c < width; c++) {
+            if(rowCounts[c] == -1 || rowCounts[c] == CompiledTemplate.REMOVED) continue;
+
+            String[] htmls = splitIn3(htmlResult, markers[c]);
+            StringBuilder sb = new StringBuilder(sizeOf(htmlResult.length() + (long) (Math.max(rowCounts[c], 1) - 1) * htmls[1].length()));
+            sb.append(htmls[0]);
+            if(rowCounts[c] == 0) {
+                sb.append(htmls[1]);
+            }
+            // Every row is rendered on its own into the shared buffer, all markers of a row are replaced in one pass
+            for(int row = 0; row < rowCounts[c]; row++) {
+                if(rowFragments[c] != null && rowFragments[c][row] != null) {
+                    sb.append(new String(rowFragments[c][row], StandardCharsets.UTF_8));
+                    continue;
+                }
+                automaton.replace(htmls[1], 0, htmls[1].length(), rowCells[c], row * width, template.escapings(), sb);
+            }
+            sb.append(htmls[2]);
+            htmlResult = sb.toString();
+        }
+
+        // Deal with context null last so that users can use any order of adding
+        StringBuilder sb = new StringBuilder(sizeOf(htmlResult.length()));
+        automaton.replace(htmlResult, 0, htmlResult.length(), values, 0, template.escapings(), sb);
+        htmlResult = sb.toString();
+
+        return htmlResult;
+    }
+
+    /**
+     * <p>Mixes the template HTML-document with the added marker-value pairs and writes the result to a stream while it is produced,
+     * flushing the stream now and then so that the client does not have to wait for the last part of a long page.</p>
+     * <p>Example: mixer.writeMix(response.getWriter());</p>
+     *
+     * @param out The writer that receives the result of mixing the values from the Java- and the HTML-code.
+     * @throws IOException If writing to the stream fails.
+     */
+    public void writeMix(Writer out) throws IOException {
+        if(!edited && !stringMix) {
+            cacheRows();
+            template.render(values, rowCells, rowCounts, rowFragments, new TemplateSink.Stream(out, flushInterval));
+        } else {
+            out.write(getMix());
+        }
+    }
+
+    /**
+     * <p>Mixes the template HTML-document with the added marker-value pairs and writes the result, UTF-8 encoded, to a byte stream.
+     * The static parts of a compiled template are written as bytes that were encoded when the template was compiled,
+     * only the values are encoded for every call.</p>
+     * <p>Example: mixer.writeMix(response.getOutputStream());</p>
+     *
+     * @param out The stream that receives the result of mixing the values from the Java- and the HTML-code.
+     * @throws IOException If writing to the stream fails.
+     */
+    public void writeMix(OutputStream out) throws IOException {
+        if(!edited && !stringMix) {
+            TemplateSink.Utf8 sink = new TemplateSink.Utf8(out, flushInterval);
+            cacheRows();
+            template.render(values, rowCells, rowCounts, rowFragments, sink);
+            sink.drain();
+        } else {
+            out.write(getMix().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * <p>Mixes the template HTML-document with the added marker-value pairs and returns the result UTF-8 encoded.
+     * The result is rendered into one buffer sized from the length of the template and of the values added, so it is not grown and copied while it is rendered.</p>
+     * <p>Example: byte[] page = mixer.getMixBytes();</p>
+     *
+     * @return The result of mixing the values from the Java- and the HTML-code, UTF-8 encoded.
+     */
+    public byte[] getMixBytes() {
+        if(edited || stringMix) {
+            return getMix().getBytes(StandardCharsets.UTF_8);
+        }
+        return getBufferedMix().toByteArray();
+    }
+
+    /**
+     * <p>Mixes the template HTML-document with the added marker-value pairs and writes the result, UTF-8 encoded, to a byte stream,
+     * telling its length first if the page is small. A page that is estimated to fit in the flush interval is rendered into one buffer,
+     * its length is passed to contentLength and it is written in one go; it would not have been flushed before it was complete anyway.
+     * A larger page is streamed like by writeMix(out), and contentLength is not called.
+     * For a servlet response this means a small page is sent with a Content-Length header instead of chunked.</p>
+     * <p>Example: mixer.writeMix(response.getOutputStream(), response::setContentLength);</p>
+     *
+     * @param out The stream that receives the result of mixing the values from the Java- and the HTML-code.
+     * @param contentLength Receives the length of the result in bytes before it is written, only called for a small page.
+     * @throws IOException If writing to the stream fails.
+     */
+    public void writeMix(OutputStream out, IntConsumer contentLength) throws IOException {
+        if(edited || stringMix) {
+            byte[] page = getMixBytes();
+            if(page.length <= flushInterval) contentLength.accept(page.length);
+            out.write(page);
+        } else if(template.estimateSize(rowCounts, valueLength) <= flushInterval) {
+            TemplateSink.Utf8 sink = getBufferedMix();
+            contentLength.accept(sink.size());
+            sink.writeTo(out);
+        } else {
+            writeMix(out);
+        }
+    }
+
+    /**
+     * <p>Sets how many characters (or bytes, for byte streams) writeMix may write before it flushes the stream. The default is 8192.</p>
+     * <p>Example: mixer.setFlushInterval(32768);</p>
+     *
+     * @param flushInterval The number of characters or bytes written between two flushes.
+     */
+    public void setFlushInterval(int flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * <p>Loads a HTML-file and returns the content as a string.</p>
+     * <p>Example: String html = Mixer.getContent(new File("x.html"));</p>
+     * <p>Example: String html = Mixer.getContent(new File(getServletContext().getRealPath("x.html")));</p>
+     * <p>Note! Every line is preceded by a line break and a failure is returned as the content, use getContent(Path, Charset) for new code.</p>
+     *
+     * @param file The template HTML-file to load.
+     * @return A string containing the loaded HTML-code.
+     */
+    public static String getContent(File file) {
+        StringBuilder content = new StringBuilder();
+        try {
+            String text = new String(Files.readAllBytes(file.toPath()), Charset.defaultCharset());
+            BufferedReader br = new BufferedReader(new StringReader(text));
+            String row;
+            while((row = br.readLine()) != null) {
+                content.append('\n').append(row);
+            }
+        } catch(IOException ioe) {
+            return ioe.getStackTrace().toString();
+        }
+        return content.toString();
+    }
+
+    /**
+     * <p>Loads a HTML-file and returns a specific context of this HTML-file as a string.</p>
+     * <p>Example: String html = Mixer.getContent(new File("x.html"), "---context---");</p>
+     * <p>Example: String html = Mixer.getContent(new File(getServletContext().getRealPath("x.html")), "---context---");</p>
+     *
+     * @param file The template HTML-file to load.
+     * @param context The context string that marks a specific area in the HTML-document.
+     * @return A string containing the specific context of the loaded HTML-code.
+     */
+    public static String getContent(File file, String context) {
+        String html = getContent(file);
+        String htmls[] = splitIn3(html, context);
+        return htmls[1];
+    }
+
+    /**
+     * <p>Loads a HTML-file in one read and returns the content exactly as it is stored, decoded with the given character set.
+     * No lock is taken, so any number of templates can be loaded at the same time.</p>
+     * <p>Example: String html = Mixer.getContent(Paths.get(getServletContext().getRealPath("x.html")), StandardCharsets.UTF_8);</p>
+     *
+     * @param path The template HTML-file to load.
+     * @param charset The character set the file is encoded in.
+     * @return A string containing the loaded HTML-code.
+     * @throws IOException If the file cannot be read or is not valid in the character set.
+     */
+    public static String getContent(Path path, Charset charset) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT)
+                .decode(ByteBuffer.wrap(bytes))
+                .toString();
+    }
+
+    // Helper method, the HTML-code as text, with the removed contexts left out
+    private String getHtml() {
+        if(html == null) {
+            String text = template.getSource();
+            for(int c = 0; c < template.markerCount(); c++) {
+                if(rowCounts[c] == CompiledTemplate.REMOVED && text.indexOf(template.markerOf(c)) != -1) {
+                    String htmls[] = splitIn3(text, template.markerOf(c));
+                    text = htmls[0] + htmls[2];
+                }
+            }
+            html = text;
+        }
+        return html;
+    }
+
+    // Helper method, the id of a marker; markers without a slot in the template get an extra id
+    private int idOf(String marker) {
+        int id = template.idOf(marker);
+        if(id != -1) return id;
+
+        if(extraIds == null) {
+            extraIds = new HashMap<>();
+            extraMarkers = new ArrayList<>();
+        }
+        Integer extra = extraIds.get(marker);
+        if(extra != null) return extra;
+
+        // Markers that do not occur in the html never change the result, any other needs the string mix
+        if(getHtml().contains(marker)) stringMix = true;
+        id = width;
+        extraIds.put(marker, id);
+        extraMarkers.add(marker);
+        grow(width + 1);
+        return id;
+    }
+
+    // Helper method, the id of a context; a context must enclose a block of the compiled template to be mixed through it
+    private int contextIdOf(String context) {
+        int c = idOf(context);
+        if(c >= template.markerCount() || !template.isContext(c)) stringMix = true;
+        return c;
+    }
+
+    // Helper method, starts a new row in a context
+    private void newRow(int c) {
+        if(rowCounts[c] == -1) {
+            rowCounts[c] = 0;
+            firstMarkers[c] = -1;
+        }
+        int size = (rowCounts[c] + 1) * width;
+        if(rowCells[c] == null) {
+            rowCells[c] = new String[Math.max(size, 4 * width)];
+        } else if(rowCells[c].length < size) {
+            rowCells[c] = Arrays.copyOf(rowCells[c], Math.max(size, rowCells[c].length * 2));
+        }
+        rowCounts[c]++;
+    }
+
+    // Helper method, makes room for more ids, rows are laid out again with the new width
+    private void grow(int newWidth) {
+        values = Arrays.copyOf(values, newWidth);
+        rowCounts = Arrays.copyOf(rowCounts, newWidth);
+        firstMarkers = Arrays.copyOf(firstMarkers, newWidth);
+        explicitRows = Arrays.copyOf(explicitRows, newWidth);
+        rowFragments = Arrays.copyOf(rowFragments, newWidth);
+        rowKeys = Arrays.copyOf(rowKeys, newWidth);
+        rowCaches = Arrays.copyOf(rowCaches, newWidth);
+        rowCells = Arrays.copyOf(rowCells, newWidth);
+        rowCounts[newWidth - 1] = -1;
+        firstMarkers[newWidth - 1] = -1;
+        for(int c = 0; c < width; c++) {
+            if(rowCells[c] == null) continue;
+            String[] cells = new String[Math.max(rowCounts[c], 1) * newWidth];
+            for(int row = 0; row < rowCounts[c]; row++) {
+                System.arraycopy(rowCells[c], row * width, cells, row * newWidth, width);
+            }
+            rowCells[c] = cells;
+        }
+        width = newWidth;
+    }
+
+    // Helper method, all markers indexed by id
+    private String[] getMarkers() {
+        String[] markers = new String[width];
+        for(int id = 0; id < template.markerCount(); id++) markers[id] = template.markerOf(id);
+        for(int id = template.markerCount(); id < width; id++) markers[id] = extraMarkers.get(id - template.markerCount());
+        return markers;
+    }
+
+    // Helper method, renders the rows that are to be cached and caches them, so that the page is rendered from fragments only
+    private void cacheRows() throws IOException {
+        for(int c = 0; c < width; c++) {
+            if(rowKeys[c] == null) continue;
+
+            if(rowFragments[c] == null) rowFragments[c] = new byte[rowCounts[c]][];
+            rowFragments[c] = ensureRow(rowFragments[c], rowCounts[c]);
+            for(int row = 0; row < rowCounts[c] && row < rowKeys[c].length; row++) {
+                if(rowKeys[c][row] == null) continue;
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+                TemplateSink.Utf8 sink = new TemplateSink.Utf8(bytes, Integer.MAX_VALUE);
+                template.renderRow(c, row, values, rowCells, rowCounts, sink);
+                sink.drain();
+                rowFragments[c][row] = bytes.toByteArray();
+                rowCaches[c].put(rowKeys[c][row], rowFragments[c][row]);
+                rowKeys[c][row] = null;
+            }
+        }
+    }
+
+    // Helper method, an array with room for the given number of rows
+    private static <T> T[] ensureRow(T[] rows, int count) {
+        return rows.length < count ? Arrays.copyOf(rows, Math.max(count, rows.length * 2)) : rows;
+    }
+
+    // Helper method, mixes through the compiled template so that the template is never rescanned
+    private String getCompiledMix() {
+        StringBuilder sb = new StringBuilder(template.estimateSize(rowCounts, valueLength));
+        try {
+            cacheRows();
+            template.render(values, rowCells, rowCounts, rowFragments, new TemplateSink.Buffer(sb));
+        } catch(IOException ioe) {
+            throw new UncheckedIOException(ioe); // a StringBuilder never fails
+        }
+        return sb.toString();
+    }
+
+    // Helper method, renders the compiled template into one buffer, sized from the template and the values
+    private TemplateSink.Utf8 getBufferedMix() {
+        TemplateSink.Utf8 sink = new TemplateSink.Utf8(template.estimateSize(rowCounts, valueLength));
+        try {
+            cacheRows();
+            template.render(values, rowCells, rowCounts, rowFragments, sink);
+        } catch(IOException ioe) {
+            throw new UncheckedIOException(ioe); // a sink without a stream never fails
+        }
+        return sink;
+    }
+
+    // Helper method, the size of a text with the values added to it
+    private int sizeOf(long textLength) {
+        return (int) Math.max(0, Math.min(textLength + valueLength, Integer.MAX_VALUE - 8));
+    }
+
+    // Helper method, for effeciency we do not use JDK 1.4 / split
+    private static String[] splitIn3(String string, String delimiter) {
+        int i1 = string.indexOf(delimiter);
+        int i2 = string.indexOf(delimiter, i1 + 1);
+
+        String string1 = string.substring(0, i1);
+        String string2 = string.substring(i1 + delimiter.length(), i2);
+        String string3 = string.substring(i2 + delimiter.length());
+
+        String[] strings = {string1, string2, string3};
+        return strings;
+    }
+}
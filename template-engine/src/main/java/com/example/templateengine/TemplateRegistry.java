@@ -0,0 +1,272 @@
+package com.example.templateengine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of {@link CompiledTemplate}s keyed by file path, shared by all servlets of the application.
+ * <p>
+ * A template is loaded (UTF-8) and compiled once when it is first registered. The directories of the registered templates
+ * are watched with a {@link WatchService}; when a template file changes it is recompiled on the watcher thread and
+ * swapped in with a single volatile write. Requests only read the current template and never wait for a reload.
+ * If a reload fails, because the file cannot be read or a setup does not fit the new version, the previous template
+ * stays in use.
+ * <p>
+ * An application opens the registry when it is started and closes it when it is stopped, with its servlet context
+ * as the owner, through {@link TemplateRegistryListener}; the template files are watched until the last owner closes
+ * the registry. When the engine jar is loaded by a class loader shared by several applications, so is the registry,
+ * and an application that is stopped thus never stops the reloading for the others.
+ *
+ * @author Björn Forsberg
+ */
+public final class TemplateRegistry {
+
+    private static final Logger LOGGER = Logger.getLogger(TemplateRegistry.class.getName());
+
+    private static final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    private static final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+    private static final Set<Object> owners = ConcurrentHashMap.newKeySet();
+    private static WatchService watchService = null;
+    private static Thread watcher = null;
+
+    /**
+     * Private constructor to prevent instantiation of this utility class.
+     * @throws AssertionError if this constructor is called from within this class.
+     */
+    private TemplateRegistry() {
+        throw new AssertionError("TemplateRegistry class should not be instantiated.");
+    }
+
+    /**
+     * Returns the template compiled from a file, loading it the first time the file is asked for.
+     * The returned supplier always gives the latest compiled version of the file, so a servlet keeps it
+     * from {@code init()} and calls {@code get()} once per request.
+     *
+     * @param file the template HTML-file
+     * @return a supplier of the current template
+     * @throws UncheckedIOException if the file cannot be read the first time
+     */
+    public static Supplier<CompiledTemplate> get(File file) {
+        return entry(file);
+    }
+
+    /**
+     * Returns the template compiled from a file with a setup, such as the escaping modes of its markers, applied to it.
+     * The setup is applied again to every reloaded version of the file on the watcher thread, before the version is
+     * swapped in; if it fails, for example because a marker it escapes was removed, the reload fails.
+     * <p>Example: TemplateRegistry.get(file, template -&gt; template.escape(Escaping.HTML, "---name---"));</p>
+     *
+     * @param file  the template HTML-file
+     * @param setup applied to every compiled version of the file
+     * @return a supplier of the current template, set up
+     * @throws UncheckedIOException if the file cannot be read the first time
+     * @throws IllegalArgumentException if the setup does not fit the template
+     */
+    public static Supplier<CompiledTemplate> get(File file, UnaryOperator<CompiledTemplate> setup) {
+        return entry(file).prepare(setup);
+    }
+
+    /**
+     * Registers a user of the registry, normally the servlet context of an application when it is started.
+     *
+     * @param owner the user, closing the registry with {@link #close(Object)} when it is done
+     */
+    public static synchronized void open(Object owner) {
+        owners.add(owner);
+    }
+
+    /**
+     * Unregisters a user of the registry, and stops watching the template files once no user is left, so that the
+     * watcher thread does not outlive the applications. Templates already handed out keep their last compiled version.
+     *
+     * @param owner the user, as given to {@link #open(Object)}
+     */
+    public static synchronized void close(Object owner) {
+        owners.remove(owner);
+        if (owners.isEmpty() && watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Could not close the template watch service", e);
+            }
+            watchService = null;
+            watcher = null;
+            watchedDirectories.clear();
+        }
+    }
+
+    /**
+     * Returns the thread that watches the template files.
+     *
+     * @return the thread, from the first registered template until the last owner closes the registry, else null
+     */
+    static synchronized Thread watcher() {
+        return watcher;
+    }
+
+    /**
+     * Reloads a registered template file on the calling thread, as the watcher thread does when the file changes.
+     *
+     * @param file the template HTML-file
+     */
+    static void reload(File file) {
+        Entry entry = entries.get(file.toPath().toAbsolutePath().normalize());
+        if (entry != null) {
+            entry.reload();
+        }
+    }
+
+    // Helper method, the entry of a file, loading the file and watching its directory the first time
+    private static Entry entry(File file) {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        Entry entry = entries.computeIfAbsent(path, p -> new Entry(p, load(p)));
+        watch(path.getParent());
+        return entry;
+    }
+
+    // Helper method, a template that cannot be read or decoded fails instead of becoming an error text
+    private static CompiledTemplate load(Path path) {
+        try {
+            return CompiledTemplate.compile(Mixer.getContent(path, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static synchronized void watch(Path directory) {
+        if (directory == null || watchedDirectories.contains(directory)) {
+            return;
+        }
+        try {
+            if (watchService == null) {
+                watchService = FileSystems.getDefault().newWatchService();
+                watcher = new Thread(TemplateRegistry::run, "template-registry-watcher");
+                watcher.setDaemon(true);
+                // Not the context class loader of the application that happens to register the first template,
+                // which the thread would keep loaded after that application is stopped
+                watcher.setContextClassLoader(TemplateRegistry.class.getClassLoader());
+                watcher.start();
+            }
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watchedDirectories.add(directory);
+        } catch (IOException e) {
+            // Not every file system can be watched, the templates are then simply never reloaded
+            LOGGER.log(Level.WARNING, "Cannot watch " + directory + " for template changes", e);
+        }
+    }
+
+    private static void run() {
+        WatchService service = watchService;
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        entries.values().forEach(Entry::reload);
+                        continue;
+                    }
+                    Entry entry = entries.get(directory.resolve((Path) event.context()));
+                    if (entry != null) {
+                        entry.reload();
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // The registry was closed
+        }
+    }
+
+    /**
+     * The current compiled version of one template file, and the set-up versions of it. A reload compiles the file
+     * and applies every setup to it before any of them is swapped in, so a new version that fails to compile or to
+     * be set up leaves all of them as they were. Reloads and registrations of setups lock the entry; requests never do.
+     * The set-up versions are referenced weakly, as their setups belong to the applications, which the registry must
+     * not keep loaded once they are stopped.
+     */
+    private static final class Entry implements Supplier<CompiledTemplate> {
+        private final Path path;
+        private final List<WeakReference<Prepared>> prepared = new ArrayList<>();
+        private volatile CompiledTemplate template;
+
+        Entry(Path path, CompiledTemplate template) {
+            this.path = path;
+            this.template = template;
+        }
+
+        @Override
+        public CompiledTemplate get() {
+            return template;
+        }
+
+        synchronized Prepared prepare(UnaryOperator<CompiledTemplate> setup) {
+            Prepared setUp = new Prepared(setup, setup.apply(template));
+            prepared.add(new WeakReference<>(setUp));
+            return setUp;
+        }
+
+        synchronized void reload() {
+            List<Prepared> live = new ArrayList<>(prepared.size());
+            prepared.removeIf(reference -> {
+                Prepared setUp = reference.get();
+                if (setUp != null) {
+                    live.add(setUp);
+                }
+                return setUp == null;
+            });
+            CompiledTemplate loaded;
+            CompiledTemplate[] setUp = new CompiledTemplate[live.size()];
+            try {
+                loaded = load(path);
+                for (int i = 0; i < setUp.length; i++) {
+                    setUp[i] = live.get(i).setup.apply(loaded);
+                }
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Keeping the previous version of " + path, e);
+                return;
+            }
+            for (int i = 0; i < setUp.length; i++) {
+                live.get(i).template = setUp[i];
+            }
+            template = loaded;
+        }
+    }
+
+    /**
+     * A template with a setup applied, swapped by its {@link Entry} on every reload.
+     */
+    private static final class Prepared implements Supplier<CompiledTemplate> {
+        private final UnaryOperator<CompiledTemplate> setup;
+        private volatile CompiledTemplate template;
+
+        Prepared(UnaryOperator<CompiledTemplate> setup, CompiledTemplate template) {
+            this.setup = setup;
+            this.template = template;
+        }
+
+        @Override
+        public CompiledTemplate get() {
+            return template;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.templateengine;
+
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+import jakarta.servlet.annotation.WebListener;
+
+/**
+ * Opens the {@link TemplateRegistry} for an application when it is started and closes it when it is stopped, with the
+ * servlet context as the owner, so that the templates of the application are reloaded while it runs and no longer
+ * watched once it is stopped.
+ * <p>
+ * The listener is found by the annotation scan of the container in every application that carries the engine jar in
+ * WEB-INF/lib. An application that takes the engine from a class loader shared by the container, whose jars are not
+ * scanned, declares it in its web.xml instead.
+ * <p>Example, in web.xml: &lt;listener&gt;&lt;listener-class&gt;com.example.templateengine.TemplateRegistryListener&lt;/listener-class&gt;&lt;/listener&gt;</p>
+ *
+ * @author Björn Forsberg
+ */
+@WebListener
+public class TemplateRegistryListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        TemplateRegistry.open(event.getServletContext());
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        TemplateRegistry.close(event.getServletContext());
+    }
+}
@@ -0,0 +1,290 @@
+package com.example.templateengine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Destination of a {@link CompiledTemplate} render. Segments are handed to the sink in document order as they are
+ * produced, so a sink that writes to a stream never needs to hold the whole page.
+ *
+ * @author Björn Forsberg
+ */
+interface TemplateSink {
+
+    /**
+     * Writes a literal segment of the template.
+     *
+     * @param text the literal text
+     * @param utf8 the same text, already UTF-8 encoded by the template
+     * @throws IOException if the underlying stream fails
+     */
+    void literal(String text, byte[] utf8) throws IOException;
+
+    /**
+     * Writes the value of a marker slot, escaped while it is written.
+     *
+     * @param value    the value
+     * @param escaping how the value is escaped
+     * @throws IOException if the underlying stream fails
+     */
+    void value(String value, Escaping escaping) throws IOException;
+
+    /**
+     * Writes a row that was rendered before, such as one from a {@link FragmentCache}.
+     *
+     * @param utf8 the rendered row, UTF-8 encoded
+     * @throws IOException if the underlying stream fails
+     */
+    void fragment(byte[] utf8) throws IOException;
+
+    /**
+     * Called after each rendered row of a context, which is where a streaming sink may flush.
+     *
+     * @throws IOException if the underlying stream fails
+     */
+    void endRow() throws IOException;
+
+    /**
+     * Collects the output in a StringBuilder.
+     */
+    final class Buffer implements TemplateSink {
+        private final StringBuilder sb;
+
+        Buffer(StringBuilder sb) {
+            this.sb = sb;
+        }
+
+        @Override
+        public void literal(String text, byte[] utf8) {
+            sb.append(text);
+        }
+
+        @Override
+        public void value(String value, Escaping escaping) {
+            escaping.escape(value, sb);
+        }
+
+        @Override
+        public void fragment(byte[] utf8) {
+            sb.append(new String(utf8, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void endRow() {
+        }
+    }
+
+    /**
+     * Writes the output straight to a Writer and flushes it whenever at least {@code flushInterval} characters have
+     * been written since the last flush, so the client starts receiving a long page before it is complete.
+     */
+    final class Stream implements TemplateSink {
+        private final Writer out;
+        private final int flushInterval;
+        private final StringBuilder escaped = new StringBuilder();
+        private char[] chars = new char[256];
+        private int unflushed = 0;
+
+        Stream(Writer out, int flushInterval) {
+            this.out = out;
+            this.flushInterval = flushInterval;
+        }
+
+        @Override
+        public void literal(String text, byte[] utf8) throws IOException {
+            out.write(text);
+            unflushed += text.length();
+        }
+
+        @Override
+        public void value(String value, Escaping escaping) throws IOException {
+            if (escaping == Escaping.RAW) {
+                out.write(value);
+                unflushed += value.length();
+                return;
+            }
+            // Escaped into buffers that are reused for every value, so no String is created
+            escaped.setLength(0);
+            escaping.escape(value, escaped);
+            if (chars.length < escaped.length()) {
+                chars = new char[Math.max(escaped.length(), chars.length * 2)];
+            }
+            escaped.getChars(0, escaped.length(), chars, 0);
+            out.write(chars, 0, escaped.length());
+            unflushed += escaped.length();
+        }
+
+        @Override
+        public void fragment(byte[] utf8) throws IOException {
+            String text = new String(utf8, StandardCharsets.UTF_8);
+            out.write(text);
+            unflushed += text.length();
+        }
+
+        @Override
+        public void endRow() throws IOException {
+            if (unflushed >= flushInterval) {
+                out.flush();
+                unflushed = 0;
+            }
+        }
+    }
+
+    /**
+     * Writes the output UTF-8 encoded to a byte stream. Literal segments are copied as the bytes the template encoded
+     * once, only values are encoded and escaped, character by character straight into the buffer. The stream is flushed whenever
+     * at least {@code flushInterval} bytes have been written since the last flush; {@link #drain()} must be called
+     * when the render is done. A sink created without a stream instead keeps the whole page in its buffer, growing
+     * it when needed, and hands it out with {@link #toByteArray()}.
+     */
+    final class Utf8 implements TemplateSink {
+        private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+
+        private final OutputStream out;
+        private byte[] buffer;
+        private final int flushInterval;
+        private int position = 0;
+        private int unflushed = 0;
+
+        Utf8(OutputStream out, int flushInterval) {
+            this.out = out;
+            this.flushInterval = flushInterval;
+            this.buffer = new byte[8192];
+        }
+
+        Utf8(int size) {
+            this.out = null;
+            this.flushInterval = Integer.MAX_VALUE;
+            this.buffer = new byte[Math.max(size, 16)];
+        }
+
+        @Override
+        public void literal(String text, byte[] utf8) throws IOException {
+            if (utf8.length > buffer.length - position) {
+                makeRoom(utf8.length);
+                if (utf8.length > buffer.length - position) {
+                    out.write(utf8);
+                    unflushed += utf8.length;
+                    return;
+                }
+            }
+            System.arraycopy(utf8, 0, buffer, position, utf8.length);
+            position += utf8.length;
+        }
+
+        @Override
+        public void value(String value, Escaping escaping) throws IOException {
+            boolean percent = escaping.encodesNonAscii();
+            for (int i = 0; i < value.length(); i++) {
+                if (position > buffer.length - 12) {
+                    makeRoom(12);
+                }
+                char c = value.charAt(i);
+                if (Character.isSurrogate(c) && !(Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1)))) {
+                    c = '?'; // unpaired surrogate, replaced like the JDK encoder does
+                }
+                if (c < 0x80) {
+                    byte[] replacement = escaping.encodedReplacement(c);
+                    if (replacement == null) {
+                        buffer[position++] = (byte) c;
+                    } else {
+                        System.arraycopy(replacement, 0, buffer, position, replacement.length);
+                        position += replacement.length;
+                    }
+                } else if (c < 0x800) {
+                    put(0xC0 | (c >> 6), percent);
+                    put(0x80 | (c & 0x3F), percent);
+                } else if (Character.isHighSurrogate(c)) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    put(0xF0 | (codePoint >> 18), percent);
+                    put(0x80 | ((codePoint >> 12) & 0x3F), percent);
+                    put(0x80 | ((codePoint >> 6) & 0x3F), percent);
+                    put(0x80 | (codePoint & 0x3F), percent);
+                } else {
+                    put(0xE0 | (c >> 12), percent);
+                    put(0x80 | ((c >> 6) & 0x3F), percent);
+                    put(0x80 | (c & 0x3F), percent);
+                }
+            }
+        }
+
+        @Override
+        public void fragment(byte[] utf8) throws IOException {
+            literal(null, utf8);
+        }
+
+        // Helper method, one byte of an encoded character, as %XX when the escaping percent-encodes
+        private void put(int b, boolean percent) {
+            if (percent) {
+                buffer[position++] = '%';
+                buffer[position++] = HEX[(b >> 4) & 0xF];
+                buffer[position++] = HEX[b & 0xF];
+            } else {
+                buffer[position++] = (byte) b;
+            }
+        }
+
+        @Override
+        public void endRow() throws IOException {
+            if (unflushed + position >= flushInterval) {
+                drain();
+                out.flush();
+                unflushed = 0;
+            }
+        }
+
+        // Helper method, a sink without a stream grows its buffer where one with a stream drains it
+        private void makeRoom(int needed) throws IOException {
+            if (out == null) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + needed));
+            } else {
+                drain();
+            }
+        }
+
+        /**
+         * Returns the number of bytes a sink without a stream has rendered.
+         *
+         * @return the size of the page in bytes
+         */
+        int size() {
+            return position;
+        }
+
+        /**
+         * Writes what a sink without a stream has rendered to a stream, in one go.
+         *
+         * @param out the stream
+         * @throws IOException if the stream fails
+         */
+        void writeTo(OutputStream out) throws IOException {
+            out.write(buffer, 0, position);
+        }
+
+        /**
+         * Returns what a sink without a stream has rendered, in an array of exactly its size. When the size the sink
+         * was created with was exact, that is the buffer itself and nothing is copied.
+         *
+         * @return the UTF-8 encoded page
+         */
+        byte[] toByteArray() {
+            return position == buffer.length ? buffer : Arrays.copyOf(buffer, position);
+        }
+
+        /**
+         * Writes the buffered bytes to the stream.
+         *
+         * @throws IOException if the underlying stream fails
+         */
+        void drain() throws IOException {
+            if (position > 0) {
+                out.write(buffer, 0, position);
+                unflushed += position;
+                position = 0;
+            }
+        }
+    }
+}
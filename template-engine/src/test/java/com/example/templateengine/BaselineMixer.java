@@ -1,27 +1,28 @@
-package com.example.envvarshtmlservlet;
+package com.example.templateengine;
 
 import java.util.*;
 import java.io.*;
 
 /**
- * <p>Title: Mixer</p>
+ * <p>Title: BaselineMixer</p>
  * <p>Description: Mixer is a simple helper-class (that is easy to use) for Servlet programmers that enable a complete separation of Servlet- and HTML-code.</p>
  * <p>Copyright: GNU GPL, http://www.gnu.org/licenses/licenses.html#TOCGPL</p>
+ * <p>Frozen copy of Mixer as it was before the template engine work started. {@link MixerEquivalenceTest} checks every engine change against it, and MixerBenchmark measures every engine change against it, through the test jar of template-engine; do not change it.</p>
  * @author Pierre Wijkman, pierre@dsv.su.se (generator) and Björn Nilsson, bjorn-ni@dsv.su.se (tester), created September-November 2002
  * @version 0.70
  */
-public class Mixer {
+public class BaselineMixer {
     private Hashtable mappings = new Hashtable();
     private String html = "";
     private final String contextNull = "---nullun---";
 
     /**
-     * <p>Constructor for the Mixer object.</p>
-     * <p>Example: Mixer mixer = new Mixer(html);</p>
+     * <p>Constructor for the BaselineMixer object.</p>
+     * <p>Example: BaselineMixer mixer = new BaselineMixer(html);</p>
      *
      * @param html The string containing the template HTML-file.
      */
-    public Mixer(String html) {
+    public BaselineMixer(String html) {
         this.html = html;
     }
 
@@ -202,8 +203,8 @@ public class Mixer {
 
     /**
      * <p>Loads a HTML-file and returns the content as a string.</p>
-     * <p>Example: String html = Mixer.getContent(new File("x.html"));</p>
-     * <p>Example: String html = Mixer.getContent(new File(getServletContext().getRealPath("x.html")));</p>
+     * <p>Example: String html = BaselineMixer.getContent(new File("x.html"));</p>
+     * <p>Example: String html = BaselineMixer.getContent(new File(getServletContext().getRealPath("x.html")));</p>
      *
      * @param file The template HTML-file to load.
      * @return A string containing the loaded HTML-code.
@@ -226,8 +227,8 @@ public class Mixer {
 
     /**
      * <p>Loads a HTML-file and returns a specific context of this HTML-file as a string.</p>
-     * <p>Example: String html = Mixer.getContent(new File("x.html"), "---context---");</p>
-     * <p>Example: String html = Mixer.getContent(new File(getServletContext().getRealPath("x.html")), "---context---");</p>
+     * <p>Example: String html = BaselineMixer.getContent(new File("x.html"), "---context---");</p>
+     * <p>Example: String html = BaselineMixer.getContent(new File(getServletContext().getRealPath("x.html")), "---context---");</p>
      *
      * @param file The template HTML-file to load.
      * @param context The context string that marks a specific area in the HTML-document.
@@ -0,0 +1,162 @@
+package com.example.templateengine;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks the output of every {@link Escaping} mode, through every way a {@link Mixer} renders a page: as a string,
+ * to a Writer, UTF-8 encoded to a stream and into one array, through the string mix of an edited template, in the
+ * rows of a context and from a {@link FragmentCache}.
+ *
+ * @author Björn Forsberg
+ */
+class EscapingTest {
+
+    private static final String SPECIALS = "<a href=\"x\" title='y'>&`=</a>";
+
+    @Test
+    void raw() {
+        assertEscaped(Escaping.RAW, SPECIALS, SPECIALS);
+    }
+
+    @Test
+    void html() {
+        assertEscaped(Escaping.HTML, SPECIALS,
+                "&lt;a href=&quot;x&quot; title=&#39;y&#39;&gt;&amp;`=&lt;/a&gt;");
+    }
+
+    @Test
+    void attribute() {
+        assertEscaped(Escaping.ATTRIBUTE, SPECIALS,
+                "&lt;a href&#61;&quot;x&quot; title&#61;&#39;y&#39;&gt;&amp;&#96;&#61;&lt;/a&gt;");
+    }
+
+    @Test
+    void url() {
+        assertEscaped(Escaping.URL, "a b/c?d=e&f#g+h%~._-", "a%20b%2Fc%3Fd%3De%26f%23g%2Bh%25~._-");
+        assertEscaped(Escaping.URL, SPECIALS, "%3Ca%20href%3D%22x%22%20title%3D%27y%27%3E%26%60%3D%3C%2Fa%3E");
+    }
+
+    @Test
+    void nonAscii() {
+        String value = "Åsa é € 😀";
+        assertEscaped(Escaping.HTML, value, value);
+        assertEscaped(Escaping.ATTRIBUTE, value, value);
+        assertEscaped(Escaping.URL, value, "%C3%85sa%20%C3%A9%20%E2%82%AC%20%F0%9F%98%80");
+    }
+
+    @Test
+    void unpairedSurrogates() {
+        // An unpaired surrogate cannot be encoded; it is written as '?', like the JDK encoder writes it
+        assertEscaped(Escaping.HTML, "a\uD83Db\uDE00c<", "a\uD83Db\uDE00c&lt;");
+        assertEscaped(Escaping.URL, "a\uD83Db\uDE00c<", "a%3Fb%3Fc%3C");
+        assertEscaped(Escaping.URL, "\uD83D", "%3F");
+    }
+
+    @Test
+    void controlCharacters() {
+        assertEscaped(Escaping.HTML, "a\tb\nc\u0000", "a\tb\nc\u0000");
+        assertEscaped(Escaping.URL, "a\tb\nc\u0000", "a%09b%0Ac%00");
+    }
+
+    @Test
+    void emptyAndNullValues() {
+        assertEscaped(Escaping.HTML, "", "");
+        assertEscaped(Escaping.URL, null, "null");
+    }
+
+    @Test
+    void unknownMarker() {
+        CompiledTemplate template = CompiledTemplate.compile("<p>---value---</p>");
+        assertThrows(IllegalArgumentException.class, () -> template.escape(Escaping.HTML, "---missing---"));
+    }
+
+    @Test
+    void escapingIsPerMarker() {
+        CompiledTemplate template = CompiledTemplate.compile("---a--- ---b--- ---c---")
+                .escape(Escaping.HTML, "---a---")
+                .escape(Escaping.URL, "---b---");
+        Mixer mixer = new Mixer(template);
+        mixer.add("---a---", "<&>");
+        mixer.add("---b---", "<&>");
+        mixer.add("---c---", "<&>");
+        assertEquals("&lt;&amp;&gt; %3C%26%3E <&>", mixer.getMix());
+        assertEquals("---a--- ---b--- ---c---", template.getSource(), "the template itself is not changed");
+    }
+
+    // Helper method, checks that a value is rendered escaped as expected through every rendering of the Mixer
+    private static void assertEscaped(Escaping escaping, String value, String expected) {
+        String html = "<p>---value---</p>\n<ul><!--===rows===--><li>---value---</li><!--===rows===--></ul>";
+        String page = "<p>" + expected + "</p>\n<ul><li>" + expected + "</li><li>" + expected + "</li></ul>";
+        byte[] encodedPage = page.getBytes(StandardCharsets.UTF_8);
+        CompiledTemplate template = CompiledTemplate.compile(html).escape(escaping, "---value---");
+
+        assertEquals(page, filled(template, value).getMix(), "getMix()");
+        assertArrayEquals(encodedPage, filled(template, value).getMixBytes(), "getMixBytes()");
+        try {
+            StringWriter writer = new StringWriter();
+            Mixer mixer = filled(template, value);
+            mixer.setFlushInterval(3);
+            mixer.writeMix(writer);
+            assertEquals(page, writer.toString(), "writeMix(Writer)");
+
+            for (int flushInterval : new int[]{1, 5, 8192}) {
+                ByteArrayOutputStream stream = new ByteArrayOutputStream();
+                mixer = filled(template, value);
+                mixer.setFlushInterval(flushInterval);
+                mixer.writeMix(stream);
+                assertArrayEquals(encodedPage, stream.toByteArray(), "writeMix(OutputStream), flushed every " + flushInterval);
+            }
+
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            int[] length = {-1};
+            filled(template, value).writeMix(stream, contentLength -> length[0] = contentLength);
+            assertArrayEquals(encodedPage, stream.toByteArray(), "writeMix(OutputStream, IntConsumer)");
+            assertEquals(encodedPage.length, length[0], "content length");
+
+            // A marker the template has no slot for, found in its text, makes the Mixer mix the text instead
+            String textHtml = html + "[[text]]";
+            CompiledTemplate textTemplate = CompiledTemplate.compile(textHtml).escape(escaping, "---value---");
+            mixer = filled(textTemplate, value);
+            mixer.add("[[text]]", "");
+            assertEquals(page, mixer.getMix(), "getMix() of the text");
+            stream = new ByteArrayOutputStream();
+            mixer.writeMix(stream);
+            assertArrayEquals(encodedPage, stream.toByteArray(), "writeMix(OutputStream) of the text");
+
+            // Rows rendered once and then taken from a fragment cache
+            FragmentCache cache = new FragmentCache(1024 * 1024);
+            for (int render = 0; render < 2; render++) {
+                mixer = new Mixer(template);
+                mixer.add("---value---", value);
+                for (int row = 0; row < 2; row++) {
+                    mixer.addRow("<!--===rows===-->", cache, row, 0,
+                            () -> Collections.singletonMap("---value---", value));
+                }
+                stream = new ByteArrayOutputStream();
+                mixer.writeMix(stream);
+                assertArrayEquals(encodedPage, stream.toByteArray(), "writeMix(OutputStream) of cached rows, render " + render);
+            }
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    // Helper method, a Mixer on the template with the value in no context and in two rows
+    private static Mixer filled(CompiledTemplate template, String value) {
+        Mixer mixer = new Mixer(template);
+        mixer.add("---value---", value);
+        mixer.add("<!--===rows===-->", "---value---", value);
+        mixer.add("<!--===rows===-->", "---value---", value);
+        return mixer;
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.templateengine;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that a {@link FragmentCache} stays within its bound in bytes, evicting the least recently used rows, and
+ * that its rows are keyed by the identity of the template, the id and the version.
+ *
+ * @author Björn Forsberg
+ */
+class FragmentCacheTest {
+
+    private static final String HTML = "<ul>---rows---<li>---name---</li>---rows---</ul>";
+
+    @Test
+    void boundedInBytes() {
+        CompiledTemplate template = CompiledTemplate.compile(HTML);
+        FragmentCache cache = new FragmentCache(10);
+        cache.put(key(template, 1), new byte[4]);
+        cache.put(key(template, 2), new byte[4]);
+        assertEquals(8, cache.getBytes());
+        cache.put(key(template, 3), new byte[4]);
+        assertEquals(8, cache.getBytes());
+        assertNull(cache.get(key(template, 1)), "the eldest row is evicted");
+        assertNotNull(cache.get(key(template, 2)));
+        assertNotNull(cache.get(key(template, 3)));
+
+        cache.put(key(template, 4), new byte[10]);
+        assertEquals(10, cache.getBytes(), "a row as large as the cache evicts every other row");
+        assertNull(cache.get(key(template, 2)));
+        assertNull(cache.get(key(template, 3)));
+
+        cache.put(key(template, 5), new byte[11]);
+        assertNull(cache.get(key(template, 5)), "a row larger than the cache is not cached");
+        assertNotNull(cache.get(key(template, 4)));
+        assertEquals(10, cache.getBytes());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        CompiledTemplate template = CompiledTemplate.compile(HTML);
+        FragmentCache cache = new FragmentCache(12);
+        cache.put(key(template, 1), new byte[4]);
+        cache.put(key(template, 2), new byte[4]);
+        cache.put(key(template, 3), new byte[4]);
+        cache.get(key(template, 1));
+        cache.put(key(template, 4), new byte[4]);
+        assertNull(cache.get(key(template, 2)), "the least recently used row is evicted");
+        assertNotNull(cache.get(key(template, 1)), "a row read since it was cached is kept");
+        assertNotNull(cache.get(key(template, 3)));
+        assertNotNull(cache.get(key(template, 4)));
+    }
+
+    @Test
+    void replacedRowsAreCountedOnce() {
+        CompiledTemplate template = CompiledTemplate.compile(HTML);
+        FragmentCache cache = new FragmentCache(100);
+        cache.put(key(template, 1), new byte[30]);
+        cache.put(key(template, 1), new byte[20]);
+        assertEquals(20, cache.getBytes());
+        cache.clear();
+        assertEquals(0, cache.getBytes());
+        assertNull(cache.get(key(template, 1)));
+    }
+
+    @Test
+    void keyedByTemplateIdentityIdAndVersion() {
+        CompiledTemplate template = CompiledTemplate.compile(HTML);
+        CompiledTemplate sameText = CompiledTemplate.compile(HTML);
+        CompiledTemplate escaped = template.escape(Escaping.HTML, "---name---");
+        FragmentCache cache = new FragmentCache(1024);
+        byte[] fragment = new byte[1];
+        cache.put(new FragmentCache.Key(template, 1L, 0), fragment);
+
+        assertSame(fragment, cache.get(new FragmentCache.Key(template, 1L, 0)), "equal ids are the same row");
+        assertNull(cache.get(new FragmentCache.Key(template, 1L, 1)), "another version");
+        assertNull(cache.get(new FragmentCache.Key(template, 2L, 0)), "another id");
+        assertNull(cache.get(new FragmentCache.Key(sameText, 1L, 0)), "a template compiled again, as on a reload");
+        assertNull(cache.get(new FragmentCache.Key(escaped, 1L, 0)), "the template with other escaping modes");
+    }
+
+    @Test
+    void rowsAreBuiltOnce() throws IOException {
+        CompiledTemplate template = CompiledTemplate.compile(HTML).escape(Escaping.HTML, "---name---");
+        FragmentCache cache = new FragmentCache(1024);
+        AtomicInteger built = new AtomicInteger();
+        byte[] expected = "<ul><li>a &amp; b</li><li>é</li></ul>".getBytes(StandardCharsets.UTF_8);
+        for (int render = 0; render < 3; render++) {
+            Mixer mixer = new Mixer(template);
+            mixer.addRow("---rows---", cache, 1L, 0, () -> row(built, "a & b"));
+            mixer.addRow("---rows---", cache, 2L, 0, () -> row(built, "é"));
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            mixer.writeMix(stream);
+            assertArrayEquals(expected, stream.toByteArray(), "render " + render);
+        }
+        assertEquals(2, built.get(), "each row is built the first time only");
+
+        Mixer mixer = new Mixer(template);
+        mixer.addRow("---rows---", cache, 1L, 1, () -> row(built, "changed"));
+        assertEquals("<ul><li>changed</li></ul>", new String(mixer.getMixBytes(), StandardCharsets.UTF_8));
+        assertEquals(3, built.get(), "a new version is built again");
+    }
+
+    @Test
+    void positiveBound() {
+        assertThrows(IllegalArgumentException.class, () -> new FragmentCache(0));
+    }
+
+    // Helper method, the key of a row of a template with a version of 0
+    private static FragmentCache.Key key(CompiledTemplate template, long id) {
+        return new FragmentCache.Key(template, id, 0);
+    }
+
+    // Helper method, a row with a name, counting that it was built
+    private static Map<String, String> row(AtomicInteger built, String name) {
+        built.incrementAndGet();
+        return Collections.singletonMap("---name---", name);
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.templateengine;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the current {@link Mixer} renders the same page as {@link BaselineMixer}, the Mixer the servlets used
+ * before the engine work started, for the same template and the same calls. Every way the current Mixer renders a
+ * page is compared: as a string, to a Writer, and UTF-8 encoded to a stream and into one array.
+ *
+ * @author Björn Forsberg
+ */
+class MixerEquivalenceTest {
+
+    private static final String GUEST_BOOK = "<!--===entries===-->";
+
+    @Test
+    void guestBookPages() throws IOException {
+        String html = load("guest-book-template.html");
+        for (int entries : new int[]{0, 1, 3, 100}) {
+            assertSameMix(html, filler -> {
+                for (int i = 0; i < entries; i++) {
+                    filler.add(GUEST_BOOK, "---no---", Integer.toString(i + 1));
+                    filler.add(GUEST_BOOK, "---time---", "Tue Oct 17 12:00:00 CEST 2023");
+                    filler.add(GUEST_BOOK, "---homepage---", "https://example.com/~guest" + i);
+                    filler.add(GUEST_BOOK, "---name---", "Åsa Öberg " + i);
+                    filler.add(GUEST_BOOK, "---email---", "guest" + i + "@example.com");
+                    filler.add(GUEST_BOOK, "---comment---", "Naïve café, 5 € 😀 & <b>bold</b> " + i);
+                }
+                if (entries == 0) {
+                    filler.removeContext(GUEST_BOOK);
+                }
+                filler.removeContext("<!--===previous===-->");
+                if (entries == 100) {
+                    filler.add("<!--===next===-->", "---after---", "1000000000000.100");
+                } else {
+                    filler.removeContext("<!--===next===-->");
+                }
+            });
+        }
+    }
+
+    @Test
+    void environmentVariablesPage() throws IOException {
+        String html = load("environment-variables-template.html");
+        assertSameMix(html, filler -> {
+            for (int i = 0; i < 50; i++) {
+                filler.add("<!--==xxx==-->", "---name---", "VARIABLE_" + i);
+                filler.add("<!--==xxx==-->", "---value---", i % 7 == 0 ? null : "/usr/local/bin:/usr/bin:" + i);
+            }
+        });
+    }
+
+    @Test
+    void sessionPage() throws IOException {
+        String html = load("display.html");
+        assertSameMix(html, filler -> {
+            filler.add("---session-id---", "F3A1C0DE");
+            for (int i = 0; i < 5; i++) {
+                filler.add("<!--===form===-->", "---name---", "attribute" + i);
+                filler.add("<!--===form===-->", "---button---", "Remove " + i);
+            }
+        });
+    }
+
+    @Test
+    void editedTemplates() {
+        String html = "<p>---title---</p>\n<ul>---ctx---<li>---item--- of ---title---</li>---ctx---</ul>\n"
+                + "<div>---extra---<b>old</b>---extra---</div>---gone---<i>---title---</i>---gone---\n"
+                + "<span>---empty---<b>---title---</b>---empty---</span>";
+        assertSameMix(html, filler -> {
+            filler.add("---title---", "Title");
+            filler.add("---ctx---", "---item---", "first");
+            filler.add("---ctx---", "---item---", "second");
+            filler.add("---missing---", "not in the template");
+            filler.addHTML("<em>---title---</em>", "---extra---");
+            filler.removeContext("---gone---");
+            filler.removeHTML("---empty---");
+        });
+        assertSameMix(html, filler -> {
+            filler.add("---title---", "Kept");
+            filler.add("---title---", "Ignored, the first value is kept");
+            filler.add("---ctx---", "---item---", "removed");
+            filler.remove("---ctx---", "---item---", "removed");
+            filler.add("---ctx---", "---item---", "cleared");
+            filler.clearContext("---ctx---");
+        });
+    }
+
+    @Test
+    void removedValues() {
+        String html = "<p>---a--- ---b---</p>---ctx---<li>---item---</li>---ctx---";
+        assertSameMix(html, filler -> {
+            filler.add("---a---", "1");
+            filler.add("---a---", "2");
+            filler.remove("---a---", "1");
+        });
+        assertSameMix(html, filler -> {
+            filler.add("---a---", "1");
+            filler.add("---a---", "2");
+            filler.add("---a---", "1");
+            filler.remove("---a---", "1");
+            filler.add("---b---", "x");
+            filler.remove("---b---", "x");
+            filler.add("---b---", "y");
+        });
+        assertSameMix(html, filler -> {
+            filler.add("---a---", "1");
+            filler.add("---a---", "2");
+            filler.add("---a---", "3");
+            filler.remove("---a---", "2");
+            filler.remove("---a---", "1");
+            filler.remove("---a---", "missing");
+        });
+    }
+
+    @Test
+    void removedRowValues() {
+        // In a context a removed value leaves the marker of its row, where the baseline shifted the pairs after it
+        Mixer mixer = new Mixer("<ul>---ctx---<li>---name---: ---value---</li>---ctx---</ul>");
+        mixer.add("---ctx---", "---name---", "a");
+        mixer.add("---ctx---", "---value---", "1");
+        mixer.add("---ctx---", "---name---", "b");
+        mixer.add("---ctx---", "---value---", "1");
+        mixer.add("---ctx---", "---name---", "c");
+        mixer.add("---ctx---", "---value---", "3");
+        mixer.remove("---ctx---", "---value---", "1");
+        String expected = "<ul><li>a: 1</li><li>b: ---value---</li><li>c: 3</li></ul>";
+        assertEquals(expected, mixer.getMix());
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), mixer.getMixBytes());
+    }
+
+    // Helper method, fills a BaselineMixer and a Mixer on the same template alike and compares every rendering
+    private static void assertSameMix(String html, Consumer<Filler> fill) {
+        BaselineMixer baseline = new BaselineMixer(html);
+        fill.accept(new Filler() {
+            public void add(String marker, String value) { baseline.add(marker, value); }
+            public void add(String context, String marker, String value) { baseline.add(context, marker, value); }
+            public void remove(String context, String marker, String value) { baseline.remove(context, marker, value); }
+            public void clearContext(String context) { baseline.clearContext(context); }
+            public void removeContext(String context) { baseline.removeContext(context); }
+            public void addHTML(String htmlPart, String context) { baseline.addHTML(htmlPart, context); }
+            public void removeHTML(String context) { baseline.removeHTML(context); }
+        });
+        String expected = baseline.getMix();
+
+        CompiledTemplate template = CompiledTemplate.compile(html);
+        assertEquals(expected, mixer(template, fill).getMix(), "getMix()");
+
+        StringWriter writer = new StringWriter();
+        try {
+            mixer(template, fill).writeMix(writer);
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            Mixer small = mixer(template, fill);
+            small.setFlushInterval(16);
+            small.writeMix(stream);
+            assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), stream.toByteArray(), "writeMix(OutputStream)");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        assertEquals(expected, writer.toString(), "writeMix(Writer)");
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), mixer(template, fill).getMixBytes(), "getMixBytes()");
+        assertEquals(expected, mixer(html, fill).getMix(), "getMix() of a Mixer made from the text");
+    }
+
+    // Helper method, a Mixer on the template filled by fill
+    private static Mixer mixer(CompiledTemplate template, Consumer<Filler> fill) {
+        return fill(new Mixer(template), fill);
+    }
+
+    // Helper method, a Mixer on the text of the template filled by fill
+    private static Mixer mixer(String html, Consumer<Filler> fill) {
+        return fill(new Mixer(html), fill);
+    }
+
+    private static Mixer fill(Mixer mixer, Consumer<Filler> fill) {
+        fill.accept(new Filler() {
+            public void add(String marker, String value) { mixer.add(marker, value); }
+            public void add(String context, String marker, String value) { mixer.add(context, marker, value); }
+            public void remove(String context, String marker, String value) { mixer.remove(context, marker, value); }
+            public void clearContext(String context) { mixer.clearContext(context); }
+            public void removeContext(String context) { mixer.removeContext(context); }
+            public void addHTML(String htmlPart, String context) { mixer.addHTML(htmlPart, context); }
+            public void removeHTML(String context) { mixer.removeHTML(context); }
+        });
+        return mixer;
+    }
+
+    private static String load(String name) throws IOException {
+        try (InputStream in = MixerEquivalenceTest.class.getResourceAsStream("/templates/" + name)) {
+            if (in == null) {
+                throw new IOException("Template not found: " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * The calls both Mixers have, so that a test fills them alike.
+     */
+    private interface Filler {
+        void add(String marker, String value);
+
+        default void remove(String marker, String value) {
+            remove("---nullun---", marker, value);
+        }
+
+        void add(String context, String marker, String value);
+
+        void remove(String context, String marker, String value);
+
+        void clearContext(String context);
+
+        void removeContext(String context);
+
+        void addHTML(String htmlPart, String context);
+
+        void removeHTML(String context);
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.templateengine;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that the {@link TemplateRegistry} reloads a changed template file, keeps the previous version when a reload
+ * fails, and watches the files only while it has owners. The registry is shared by the whole JVM, so every test
+ * opens it with an owner of its own and uses template files of its own.
+ *
+ * @author Björn Forsberg
+ */
+class TemplateRegistryTest {
+
+    private static final long TIMEOUT_MILLIS = 20_000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void reloadsChangedFiles() throws Exception {
+        Object owner = new Object();
+        TemplateRegistry.open(owner);
+        try {
+            File file = write("page.html", "<p>---name---</p>");
+            Supplier<CompiledTemplate> template = TemplateRegistry.get(file);
+            Supplier<CompiledTemplate> escaped = TemplateRegistry.get(file, t -> t.escape(Escaping.HTML, "---name---"));
+            assertSame(template, TemplateRegistry.get(file), "a file is loaded once");
+            assertEquals("<p>a&b</p>", mix(template, "a&b"));
+            assertEquals("<p>a&amp;b</p>", mix(escaped, "a&b"));
+
+            write("page.html", "<div>---name---</div>");
+            awaitMix(template, "a&b", "<div>a&b</div>");
+            awaitMix(escaped, "a&b", "<div>a&amp;b</div>");
+        } finally {
+            TemplateRegistry.close(owner);
+        }
+    }
+
+    @Test
+    void keepsThePreviousVersionWhenAReloadFails() throws IOException {
+        Object owner = new Object();
+        TemplateRegistry.open(owner);
+        try {
+            File file = write("escaped.html", "<p>---name---</p>");
+            Supplier<CompiledTemplate> template = TemplateRegistry.get(file);
+            Supplier<CompiledTemplate> escaped = TemplateRegistry.get(file, t -> t.escape(Escaping.HTML, "---name---"));
+            CompiledTemplate first = template.get();
+            CompiledTemplate firstEscaped = escaped.get();
+
+            // The setup escapes a marker the new version no longer has, so neither version is swapped in
+            write("escaped.html", "<p>no marker</p>");
+            TemplateRegistry.reload(file);
+            assertSame(first, template.get());
+            assertSame(firstEscaped, escaped.get());
+
+            // Not UTF-8, so the file cannot be decoded
+            Files.write(file.toPath(), new byte[]{'<', 'p', '>', (byte) 0xC3, (byte) 0x28, '<', '/', 'p', '>'});
+            TemplateRegistry.reload(file);
+            assertSame(first, template.get());
+            assertSame(firstEscaped, escaped.get());
+
+            Files.delete(file.toPath());
+            TemplateRegistry.reload(file);
+            assertSame(first, template.get());
+            assertSame(firstEscaped, escaped.get());
+
+            write("escaped.html", "<b>---name---</b>");
+            TemplateRegistry.reload(file);
+            assertEquals("<b><</b>", mix(template, "<"));
+            assertEquals("<b>&lt;</b>", mix(escaped, "<"));
+        } finally {
+            TemplateRegistry.close(owner);
+        }
+    }
+
+    @Test
+    void missingFilesFail() {
+        assertThrows(UncheckedIOException.class, () -> TemplateRegistry.get(directory.resolve("missing.html").toFile()));
+    }
+
+    @Test
+    void watchesUntilTheLastOwnerCloses() throws IOException {
+        Object first = new Object();
+        Object second = new Object();
+        TemplateRegistry.open(first);
+        TemplateRegistry.open(second);
+        TemplateRegistry.open(second);
+        TemplateRegistry.get(write("owned.html", "---name---"));
+        assertNotNull(TemplateRegistry.watcher());
+
+        TemplateRegistry.close(first);
+        assertNotNull(TemplateRegistry.watcher(), "another owner is left");
+        TemplateRegistry.close(first);
+        assertNotNull(TemplateRegistry.watcher(), "closing twice counts once");
+        TemplateRegistry.close(second);
+        assertNull(TemplateRegistry.watcher(), "an owner opening twice is one owner");
+
+        Object again = new Object();
+        TemplateRegistry.open(again);
+        try {
+            TemplateRegistry.get(directory.resolve("owned.html").toFile());
+            assertNotNull(TemplateRegistry.watcher(), "a template asked for again is watched again");
+        } finally {
+            TemplateRegistry.close(again);
+        }
+    }
+
+    @Test
+    void theWatcherDoesNotKeepTheClassLoaderOfAnApplication() throws IOException {
+        Object owner = new Object();
+        Thread current = Thread.currentThread();
+        ClassLoader previous = current.getContextClassLoader();
+        try (URLClassLoader application = new URLClassLoader(new URL[0], previous)) {
+            current.setContextClassLoader(application);
+            TemplateRegistry.open(owner);
+            TemplateRegistry.get(write("loader.html", "---name---"));
+            assertSame(TemplateRegistry.class.getClassLoader(), TemplateRegistry.watcher().getContextClassLoader());
+        } finally {
+            current.setContextClassLoader(previous);
+            TemplateRegistry.close(owner);
+        }
+    }
+
+    // Helper method, writes a template file in the directory of the test
+    private File write(String name, String html) throws IOException {
+        Path path = directory.resolve(name);
+        Files.write(path, html.getBytes(StandardCharsets.UTF_8));
+        return path.toFile();
+    }
+
+    // Helper method, waits for the watcher thread to swap in a version of the template that renders as expected
+    private static void awaitMix(Supplier<CompiledTemplate> template, String name, String expected)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!expected.equals(mix(template, name)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, mix(template, name));
+    }
+
+    // Helper method, renders the current version of the template with a name
+    private static String mix(Supplier<CompiledTemplate> template, String name) {
+        Mixer mixer = new Mixer(template.get());
+        mixer.add("---name---", name);
+        return mixer.getMix();
+    }
+}